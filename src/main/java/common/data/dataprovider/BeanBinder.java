@@ -0,0 +1,242 @@
+package common.data.dataprovider;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.beanutils.ConvertUtils;
+
+/**
+ * This class fills data beans from test data maps, with everything that needs
+ * reflection worked out once per bean class:
+ * - The constructor and the property setters (as MethodHandles)
+ * - The enum fields ('field_enum' keys) and a map of their constants
+ * - The nested bean fields ('field_id' keys), resolved through a BeanResolver
+ *
+ * Values are converted like BeanUtils.populate (ConvertUtils), and keys that are
+ * not simple properties (e.g. 'a.b') are still handed to BeanUtils.
+ *
+ * @author mlabbe
+ *
+ */
+public final class BeanBinder<T> {
+
+	/**
+	 * Looks up a nested bean by id.
+	 */
+	public interface BeanResolver {
+		Object resolve(Class<?> clazz, String id) throws Exception;
+	}
+
+	/*
+	 * Sets one property
+	 */
+	private static class Setter {
+		private final Class<?> type;
+		private final MethodHandle handle;
+
+		private Setter(Class<?> type, MethodHandle handle) {
+			this.type = type;
+			this.handle = handle;
+		}
+
+		private void set(Object bean, Object value) throws Throwable {
+			Object converted = value;
+			if (value == null ? type.isPrimitive() : !wrap(type).isInstance(value)) {
+				converted = ConvertUtils.convert(value, type);
+			}
+			handle.invokeExact(bean, converted);
+		}
+	}
+
+	/*
+	 * An enum field, set from 'field_enum'
+	 */
+	private static class EnumPlan {
+		private final String key;
+		private final Setter setter;
+		private final Map<String, Object> constants = new HashMap<String, Object>();
+
+		private EnumPlan(String key, Setter setter, Class<?> enumType) {
+			this.key = key;
+			this.setter = setter;
+			for (Object constant : enumType.getEnumConstants()) {
+				constants.put(((Enum<?>) constant).name(), constant);
+			}
+		}
+	}
+
+	/*
+	 * A nested bean field, set from 'field_id'
+	 */
+	private static class NestedPlan {
+		private final String key;
+		private final Setter setter;
+		private final Class<?> beanType;
+
+		private NestedPlan(String key, Setter setter, Class<?> beanType) {
+			this.key = key;
+			this.setter = setter;
+			this.beanType = beanType;
+		}
+	}
+
+	// The package where the data beans are found
+	private static final String beansPackagePath = "common.data.beans";
+	private static final MethodType setterType = MethodType.methodType(void.class, Object.class, Object.class);
+	private static final ConcurrentHashMap<Class<?>, BeanBinder<?>> binders = new ConcurrentHashMap<Class<?>, BeanBinder<?>>();
+
+	private final Class<T> clazz;
+	private final Constructor<T> constructor;
+	private final Map<String, Setter> setters = new HashMap<String, Setter>();
+	private final List<EnumPlan> enumPlans = new ArrayList<EnumPlan>();
+	private final List<NestedPlan> nestedPlans = new ArrayList<NestedPlan>();
+
+	private BeanBinder(Class<T> clazz) throws Exception {
+		this.clazz = clazz;
+		this.constructor = clazz.getDeclaredConstructor();
+		this.constructor.setAccessible(true);
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		BeanInfo beanInfo = Introspector.getBeanInfo(clazz);
+		for (PropertyDescriptor property : beanInfo.getPropertyDescriptors()) {
+			Method writeMethod = property.getWriteMethod();
+			if (writeMethod != null) {
+				writeMethod.setAccessible(true);
+				MethodHandle handle = lookup.unreflect(writeMethod).asType(setterType);
+				setters.put(property.getName(), new Setter(property.getPropertyType(), handle));
+			}
+		}
+
+		for (Field field : clazz.getDeclaredFields()) {
+			Class<?> type = field.getType();
+			Setter setter = setters.get(field.getName());
+			if (type.isPrimitive() || type.toString().contains("String") || setter == null) {
+				continue;
+			}
+			if (type.getName().contains(beansPackagePath)) {
+				nestedPlans.add(new NestedPlan(field.getName() + "_id", setter, type));
+			} else if (type.isEnum()) {
+				enumPlans.add(new EnumPlan(field.getName() + "_enum", setter, type));
+			}
+		}
+	}
+
+	/**
+	 * Returns the binder for a bean class, created on first use
+	 * @param clazz		the bean class
+	 * @return BeanBinder		the binder
+	 * @throws Exception		if the class can't be introspected
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> BeanBinder<T> forClass(Class<T> clazz) throws Exception {
+		BeanBinder<T> binder = (BeanBinder<T>) binders.get(clazz);
+		if (binder == null) {
+			binder = new BeanBinder<T>(clazz);
+			BeanBinder<T> existing = (BeanBinder<T>) binders.putIfAbsent(clazz, binder);
+			if (existing != null) {
+				binder = existing;
+			}
+		}
+		return binder;
+	}
+
+	/**
+	 * Creates a bean, and fills it from the map
+	 * @param map		the test data
+	 * @param resolver		looks up the nested beans ('field_id' keys)
+	 * @return T		the bean
+	 * @throws Exception		on conversion or nested bean errors
+	 */
+	public T bind(Map<?, ?> map, BeanResolver resolver) throws Exception {
+		T bean = constructor.newInstance();
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (entry.getKey() == null) {
+				continue;
+			}
+			String name = entry.getKey().toString();
+			Setter setter = setters.get(name);
+			if (setter != null) {
+				set(setter, bean, entry.getValue());
+			} else if (name.indexOf('.') >= 0 || name.indexOf('[') >= 0 || name.indexOf('(') >= 0) {
+				BeanUtils.setProperty(bean, name, entry.getValue()); // Nested/indexed/mapped property
+			}
+		}
+
+		for (EnumPlan plan : enumPlans) {
+			String value = getValue(map, plan.key);
+			if (value != null) {
+				Object constant = plan.constants.get(value);
+				if (constant == null) {
+					throw new IllegalArgumentException("No enum constant " + value + " for " + clazz.getName() + "." + plan.key);
+				}
+				set(plan.setter, bean, constant);
+			}
+		}
+
+		for (NestedPlan plan : nestedPlans) {
+			String value = getValue(map, plan.key);
+			if (value != null) {
+				set(plan.setter, bean, resolver.resolve(plan.beanType, value));
+			}
+		}
+		return bean;
+	}
+
+	/*
+	 * The map value as a string, null if missing or empty
+	 */
+	private static String getValue(Map<?, ?> map, String key) {
+		Object value = map.get(key);
+		if (value == null || value.toString().isEmpty()) {
+			return null;
+		}
+		return value.toString();
+	}
+
+	private static void set(Setter setter, Object bean, Object value) throws Exception {
+		try {
+			setter.set(bean, value);
+		} catch (Exception | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		}
+	}
+
+	private static Class<?> wrap(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		}
+		if (type == int.class) {
+			return Integer.class;
+		} else if (type == long.class) {
+			return Long.class;
+		} else if (type == boolean.class) {
+			return Boolean.class;
+		} else if (type == double.class) {
+			return Double.class;
+		} else if (type == float.class) {
+			return Float.class;
+		} else if (type == short.class) {
+			return Short.class;
+		} else if (type == byte.class) {
+			return Byte.class;
+		} else if (type == char.class) {
+			return Character.class;
+		}
+		return Void.class;
+	}
+}
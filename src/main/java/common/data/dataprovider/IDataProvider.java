@@ -1,5 +1,7 @@
 package common.data.dataprovider;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -9,4 +11,19 @@ public interface IDataProvider {
 	
 	public <T> Map<String, Object> getData(Class<T> clazz, String id) throws Exception;
 	
+	/**
+	 * Returns the data beans of a class as TestNG records, one {bean} per record.
+	 * By default all beans are read first (getDataList). Providers that can stream override it.
+	 * @param clazz		the data bean class
+	 * @return Iterator		the records
+	 * @throws Exception		if the data can't be read
+	 */
+	default <T> Iterator<Object[]> getDataIterator(Class<T> clazz) throws Exception {
+		List<Object[]> records = new ArrayList<Object[]>();
+		for (T bean : getDataList(clazz)) {
+			records.add(new Object[] { bean });
+		}
+		return records.iterator();
+	}
+	
 }
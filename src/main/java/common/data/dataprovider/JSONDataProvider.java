@@ -1,31 +1,133 @@
 package common.data.dataprovider;
 
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 
 import common.env.TestProperties;
 
-
+/**
+ * This class reads JSON test data into data beans.
+ * - One ObjectMapper (with the JodaModule) is shared, with an ObjectReader cached per bean class.
+ * - Files are parsed straight from the stream, once. The parsed tree is cached
+ *   until the file's modification time changes, and a new bean is bound from it on each call.
+ * - Files are read from 'src/main/resources/testdata/ENV/', or from the classpath
+ *   ('testdata/ENV/') when running from a jar.
+ *
+ * @author mlabbe
+ *
+ */
 public class JSONDataProvider {
 
 	private static final String testDataFolderBase = "src/main/resources/testdata/";
+	private static final String testDataResourceBase = "testdata/";
+
+	private static final ObjectMapper mapper = new ObjectMapper().registerModule(new JodaModule());
+	private static final ConcurrentHashMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+	private static final ConcurrentHashMap<String, ParsedFile> parsedFiles = new ConcurrentHashMap<String, ParsedFile>();
 
-	private static String testDataFolder;
+	/*
+	 * A parsed file, and the modification time it was parsed at (0 for classpath resources)
+	 */
+	private static class ParsedFile {
+		private final long lastModified;
+		private final JsonNode tree;
 
+		private ParsedFile(long lastModified, JsonNode tree) {
+			this.lastModified = lastModified;
+			this.tree = tree;
+		}
+	}
 
 	public <T> T getJSONDataBean(Class<T> clazz) throws Exception {
 		String className = getRelativePath(clazz);
 		String currentEnv = TestProperties.testProperties.getString(TestProperties.TEST_ENV);
-		String userDirectory = System.getProperty("user.dir") + "/";
-		String jsonFilePath = userDirectory + testDataFolder + currentEnv.toUpperCase() + "/" + className + ".json";
-		byte[] encoded = Files.readAllBytes(Paths.get(jsonFilePath));
-		String jsonData = new String(encoded, "UTF-8");
-		ObjectMapper mapper = new ObjectMapper();
-		mapper.registerModule(new JodaModule());
-		return (T) mapper.readValue(jsonData, clazz);
+		String relativeFilePath = currentEnv.toUpperCase() + "/" + className + ".json";
+		return getReader(clazz).readValue(getTree(relativeFilePath));
+	}
+
+	/**
+	 * Streams the data beans of a class, one {bean} per element of the root array
+	 * (or a single {bean} if the root is an object). The file is parsed as it is read.
+	 * @param clazz		the data bean class
+	 * @return Iterator		the records
+	 * @throws Exception		if the file is not found
+	 */
+	public <T> Iterator<Object[]> getJSONDataIterator(Class<T> clazz) throws Exception {
+		String className = getRelativePath(clazz);
+		String currentEnv = TestProperties.testProperties.getString(TestProperties.TEST_ENV);
+		final InputStream inStream = openFile(currentEnv.toUpperCase() + "/" + className + ".json");
+		final MappingIterator<T> beans = getReader(clazz).readValues(inStream);
+		return new StreamingDataProvider.RecordIterator() {
+			@Override
+			protected Object[] readNext() throws Exception {
+				return beans.hasNextValue() ? new Object[] { beans.nextValue() } : null;
+			}
+
+			@Override
+			public void close() throws IOException {
+				beans.close();
+				inStream.close();
+			}
+		};
+	}
+
+	private static ObjectReader getReader(Class<?> clazz) {
+		ObjectReader reader = readers.get(clazz);
+		if (reader == null) {
+			reader = mapper.reader(clazz);
+			ObjectReader existing = readers.putIfAbsent(clazz, reader);
+			if (existing != null) {
+				reader = existing;
+			}
+		}
+		return reader;
+	}
+
+	/*
+	 * Returns the parsed file, parsing it again if it changed on disk
+	 */
+	private static JsonNode getTree(String relativeFilePath) throws Exception {
+		File file = new File(System.getProperty("user.dir") + "/" + testDataFolderBase + relativeFilePath);
+		long lastModified = file.isFile() ? file.lastModified() : 0;
+		ParsedFile parsed = parsedFiles.get(relativeFilePath);
+		if (parsed != null && parsed.lastModified == lastModified) {
+			return parsed.tree;
+		}
+
+		InputStream inStream = openFile(relativeFilePath);
+		try {
+			parsed = new ParsedFile(lastModified, mapper.readTree(inStream));
+		} finally {
+			inStream.close();
+		}
+		parsedFiles.put(relativeFilePath, parsed);
+		return parsed.tree;
+	}
+
+	/*
+	 * Opens the file from the test data folder, or from the classpath
+	 */
+	private static InputStream openFile(String relativeFilePath) throws IOException {
+		File file = new File(System.getProperty("user.dir") + "/" + testDataFolderBase + relativeFilePath);
+		if (file.isFile()) {
+			return new FileInputStream(file);
+		}
+		InputStream inStream = ClassLoader.getSystemResourceAsStream(testDataResourceBase + relativeFilePath);
+		if (inStream == null) {
+			throw new FileNotFoundException("Test data file NOT found: " + file.getPath());
+		}
+		return inStream;
 	}
 
 	private static String getRelativePath(@SuppressWarnings("rawtypes") Class clazz) {
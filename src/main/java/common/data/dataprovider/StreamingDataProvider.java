@@ -0,0 +1,113 @@
+package common.data.dataprovider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import common.utils.ExcelDataUtil;
+
+/**
+ * This class feeds test data records to TestNG data providers, one record at a time.
+ * The records are read lazily as TestNG asks for them, so a large data set starts
+ * right away, and only the records in use are held in memory.
+ * - YAML: one data bean per document
+ * - JSON: one data bean per element of the root array (or the root object)
+ * - Excel: one row (as cell strings) per matching row of a sheet
+ *
+ * Example (in a DataProvider method returning Iterator<Object[]>, parallel or not):
+ *    return StreamingDataProvider.yaml(SampleDataBean.class);
+ *
+ * @author mlabbe
+ *
+ */
+public class StreamingDataProvider {
+
+	/**
+	 * An Iterator that reads its records on demand, and closes its source after the last one.
+	 * Safe to use from TestNG's parallel data provider threads.
+	 */
+	public abstract static class RecordIterator implements Iterator<Object[]>, Closeable {
+		private Object[] nextRecord;
+		private boolean done = false;
+
+		/**
+		 * Reads the next record
+		 * @return Object[]		the record, or null after the last one
+		 * @throws Exception		on read errors
+		 */
+		protected abstract Object[] readNext() throws Exception;
+
+		@Override
+		public synchronized boolean hasNext() {
+			if (nextRecord == null && !done) {
+				try {
+					nextRecord = readNext();
+				} catch (Exception e) {
+					closeQuietly();
+					throw new IllegalStateException("Test data could not be read: " + e.getMessage(), e);
+				}
+				if (nextRecord == null) {
+					closeQuietly();
+				}
+			}
+			return nextRecord != null;
+		}
+
+		@Override
+		public synchronized Object[] next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Object[] record = nextRecord;
+			nextRecord = null;
+			return record;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void closeQuietly() {
+			done = true;
+			try {
+				close();
+			} catch (IOException e) {
+				// nothing
+			}
+		}
+	}
+
+	/**
+	 * Streams the YAML data beans of a class, for the current environment
+	 * @param clazz		the data bean class
+	 * @return Iterator		one {bean} per document
+	 * @throws Exception		if the file can't be opened
+	 */
+	public static <T> Iterator<Object[]> yaml(Class<T> clazz) throws Exception {
+		return new YamlDataProvider().getDataIterator(clazz);
+	}
+
+	/**
+	 * Streams the JSON data beans of a class, for the current environment
+	 * @param clazz		the data bean class
+	 * @return Iterator		one {bean} per record
+	 * @throws Exception		if the file can't be opened
+	 */
+	public static <T> Iterator<Object[]> json(Class<T> clazz) throws Exception {
+		return new JSONDataProvider().getJSONDataIterator(clazz);
+	}
+
+	/**
+	 * Streams the rows of an Excel sheet that match a search key (in column A)
+	 * @param file		the excel file (empty for the environment's default file)
+	 * @param sheet		the sheet name
+	 * @param searchKey		the search key
+	 * @return Iterator		one row of cell strings per match
+	 * @throws Exception		if the file can't be opened
+	 */
+	public static Iterator<Object[]> excel(String file, String sheet, String searchKey) throws Exception {
+		return new ExcelDataUtil().getExcelDataIterator(file, sheet, searchKey);
+	}
+}
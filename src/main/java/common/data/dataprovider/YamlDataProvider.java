@@ -1,26 +1,20 @@
 package common.data.dataprovider;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.apache.commons.beanutils.BeanUtils;
-import org.apache.commons.beanutils.BeanUtilsBean;
 import org.yaml.snakeyaml.Yaml;
 
-import common.env.TestProperties;
-
-
 
 public class YamlDataProvider implements IDataProvider {
 
-	// The package where the data beans are found
-	private final String beansPackagePath = "common.data.beans";
-
 	public <T> T getDataBean(Class<T> clazz, String id) throws Exception {
 		Map<String, Object> data = getData(clazz, id);
 		try {
@@ -41,32 +35,29 @@ public class YamlDataProvider implements IDataProvider {
 		return null;
 	}
 
-	@SuppressWarnings("unchecked")
 	public <T> Map<String, Object> getData(Class<T> clazz, String id) {
-		Iterable<Object> allObjects = getData(clazz);
-		while (allObjects.iterator().hasNext()) {
-			Object object = allObjects.iterator().next();
-			Map<String, Object> map = (Map<String, Object>) object;
+		// Lookup by id in the shared store. The map is a copy, safe to change.
+		Map<String, Object> map = YamlDataStore.getInstance().get(clazz, id);
+		if (map != null) {
 			setRandomName(map);
-			
-			if (null == id) return map;
-			
-			if (map.get("id").equals(id)) return map;
 		}
-		return null;
+		return map;
 	}
 
-	public static synchronized <T> Iterable<Object> getData(Class<T> clazz) {
-		String className = getRelativePath(clazz);
-		String currentEnv = TestProperties.testProperties.getString(TestProperties.TEST_ENV);		
-		String yamlFilePath = "testdata/" + currentEnv.toUpperCase() + "/" + className + ".yaml";
-		InputStream inStream = ClassLoader.getSystemResourceAsStream(yamlFilePath);
-		Iterable<Object> allObjects = new Yaml().loadAll(inStream);
-		return allObjects;
+	/**
+	 * Returns all documents for a data class (copies of the cached documents)
+	 * @param clazz		the data class
+	 * @return Iterable		the documents
+	 */
+	public static <T> Iterable<Object> getData(Class<T> clazz) {
+		return new ArrayList<Object>(YamlDataStore.getInstance().getAll(clazz));
 	}
 
 	private void setRandomName(Map<String, Object> data) {
 		for (Entry<String, Object> item : data.entrySet()) {
+			if (item.getValue() == null) {
+				continue;
+			}
 			String value = item.getValue().toString();
 			if (value.contains("[R]")) {
 				String newValue = value.replace("[R]", String.valueOf(System.currentTimeMillis()));
@@ -77,67 +68,61 @@ public class YamlDataProvider implements IDataProvider {
 
 	@Override
 	public <T> List<T> getDataList(Class<T> clazz) throws Exception {
-		Map<String, Object> allObjects = getData(clazz, null);
 		List<T> listBean = new ArrayList<T>();
-		for (Entry<String, Object> entry : allObjects.entrySet()) {
-			Map<?, ?> map = (Map<?, ?>) entry;
-			try {
-				listBean.add(populateBean(map, clazz));
-			} catch (InstantiationException | IllegalAccessException
-					| InvocationTargetException | ClassNotFoundException
-					| NoSuchMethodException | SecurityException e) {
-				e.printStackTrace();
-			}
+		for (Map<String, Object> map : YamlDataStore.getInstance().getAll(clazz)) {
+			setRandomName(map);
+			listBean.add(populateBean(map, clazz));
 		}
-		return null;
+		return listBean;
 	}
 
-	@SuppressWarnings("unchecked")
-	private <T> T populateBean(Map<?, ?> map, Class<T> clazz) throws Exception {
-		T bean = clazz.newInstance();
-		BeanUtils.populate(bean, (Map<String, ? extends Object>) map);
-		Field[] fields = clazz.getDeclaredFields();
-		for (Field field : fields) {
-			String type = field.getType().getName();
-			if (field.getType().isPrimitive() || field.getType().toString().contains("String")) {
-				continue;
+	/**
+	 * Streams the data beans of a class, one {bean} per YAML document.
+	 * Documents are parsed as they are read (see StreamingDataProvider).
+	 * @param clazz		the data bean class
+	 * @return Iterator		the records
+	 * @throws Exception		if the file is not found
+	 */
+	@Override
+	public <T> Iterator<Object[]> getDataIterator(final Class<T> clazz) throws Exception {
+		String yamlFilePath = YamlDataStore.getFilePath(clazz);
+		final InputStream inStream = ClassLoader.getSystemResourceAsStream(yamlFilePath);
+		if (inStream == null) {
+			throw new FileNotFoundException("Test data file NOT found: " + yamlFilePath);
+		}
+		final Iterator<Object> documents = new Yaml().loadAll(inStream).iterator();
+		return new StreamingDataProvider.RecordIterator() {
+			@SuppressWarnings("unchecked")
+			@Override
+			protected Object[] readNext() throws Exception {
+				while (documents.hasNext()) {
+					Object document = documents.next();
+					if (document instanceof Map) {
+						Map<String, Object> map = (Map<String, Object>) document;
+						setRandomName(map);
+						return new Object[] { populateBean(map, clazz) };
+					}
+				}
+				return null;
 			}
-			if (type.contains(beansPackagePath)) {
-				String fieldName = field.getName();
-				String fieldKey = fieldName + "_id";
-				
-				if (!map.containsKey(fieldKey)) continue;
-				
-				String fieldValue = map.get(fieldKey).toString();
-				
-				if (fieldValue.isEmpty()) continue;
-				
-				T subBean = (T) getDataBean(Class.forName(type), fieldValue);
-				BeanUtilsBean.getInstance().setProperty(bean, fieldName, subBean);
-			} else {
-				String fieldKey = field.getName() + "_enum";
-				
-				if (!map.containsKey(fieldKey)) continue;
-				
-				String fieldValue = map.get(fieldKey).toString();
-				
-				if (fieldValue.isEmpty()) continue;
-				
-				@SuppressWarnings("rawtypes")
-				Class cls = Class.forName(type);
-				Object o = Enum.valueOf(cls, fieldValue);
-				BeanUtilsBean.getInstance().setProperty(bean, field.getName(), o);
+
+			@Override
+			public void close() throws IOException {
+				inStream.close();
 			}
-		}
-		return bean;
+		};
 	}
 
-	private static String getRelativePath(@SuppressWarnings("rawtypes") Class clazz) {
-		String className = clazz.getName();
-		className = className.replace("common.data.beans.", "");
-		className = className.replace("common.data.testdata.", "");
-		className = className.toLowerCase().replace("bean", "");
-		className = className.replace(".", "/");
-		return className;
+	/*
+	 * Fills a new bean from the map, with the binder compiled for the class (see BeanBinder).
+	 * Nested beans ('field_id' keys) are looked up by id.
+	 */
+	private <T> T populateBean(Map<?, ?> map, Class<T> clazz) throws Exception {
+		return BeanBinder.forClass(clazz).bind(map, new BeanBinder.BeanResolver() {
+			@Override
+			public Object resolve(Class<?> beanClass, String id) throws Exception {
+				return getDataBean(beanClass, id);
+			}
+		});
 	}
 }
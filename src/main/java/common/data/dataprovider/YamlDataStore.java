@@ -0,0 +1,176 @@
+package common.data.dataprovider;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.yaml.snakeyaml.Yaml;
+
+import common.env.TestProperties;
+
+/**
+ * This class holds the parsed YAML test data, shared by all test threads.
+ * - Each YAML file (per environment and data class) is parsed once, on first use.
+ * - The documents of a file are indexed by their 'id'.
+ * - Lookups are a hash get, without a global lock.
+ * - Callers always get a deep copy, so changing the data (e.g. the [R] substitution)
+ *   never changes the shared documents.
+ *
+ * @author mlabbe
+ *
+ */
+public class YamlDataStore {
+
+	/*
+	 * The parsed documents of one YAML file. Never changed after loading.
+	 */
+	private static class Documents {
+		private final List<Map<String, Object>> all;
+		private final Map<String, Map<String, Object>> byId;
+
+		private Documents(List<Map<String, Object>> all) {
+			this.all = all;
+			this.byId = new HashMap<String, Map<String, Object>>();
+			for (Map<String, Object> document : all) {
+				Object id = document.get("id");
+				if (id != null && !byId.containsKey(id.toString())) { // First one wins, like a scan
+					byId.put(id.toString(), document);
+				}
+			}
+		}
+	}
+
+	private static final YamlDataStore instance = new YamlDataStore();
+
+	private final ConcurrentHashMap<String, Documents> files = new ConcurrentHashMap<String, Documents>();
+
+	private YamlDataStore() {
+	}
+
+	public static YamlDataStore getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the path of the YAML file for a data class, in the current environment
+	 * @param clazz		the data class
+	 * @return String		the classpath resource path
+	 */
+	public static String getFilePath(Class<?> clazz) {
+		String currentEnv = TestProperties.testProperties.getString(TestProperties.TEST_ENV);
+		return "testdata/" + currentEnv.toUpperCase() + "/" + getRelativePath(clazz) + ".yaml";
+	}
+
+	/**
+	 * Returns a copy of all documents for a data class
+	 * @param clazz		the data class
+	 * @return List		the documents, in file order
+	 */
+	public List<Map<String, Object>> getAll(Class<?> clazz) {
+		List<Map<String, Object>> copies = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> document : getDocuments(clazz).all) {
+			copies.add(copyMap(document));
+		}
+		return copies;
+	}
+
+	/**
+	 * Returns a copy of the document with the given id
+	 * @param clazz		the data class
+	 * @param id		the document id, or null for the first document
+	 * @return Map		the document, or null if not found
+	 */
+	public Map<String, Object> get(Class<?> clazz, String id) {
+		Documents documents = getDocuments(clazz);
+		Map<String, Object> document;
+		if (id == null) {
+			document = documents.all.isEmpty() ? null : documents.all.get(0);
+		} else {
+			document = documents.byId.get(id);
+		}
+		return (document == null) ? null : copyMap(document);
+	}
+
+	/**
+	 * Drops all parsed files, so they are read again on next use
+	 */
+	public void clear() {
+		files.clear();
+	}
+
+	private Documents getDocuments(Class<?> clazz) {
+		String path = getFilePath(clazz);
+		Documents documents = files.get(path);
+		if (documents == null) {
+			documents = load(path);
+			Documents existing = files.putIfAbsent(path, documents);
+			if (existing != null) {
+				documents = existing;
+			}
+		}
+		return documents;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Documents load(String path) {
+		InputStream inStream = ClassLoader.getSystemResourceAsStream(path);
+		if (inStream == null) {
+			throw new IllegalArgumentException("Test data file NOT found: " + path);
+		}
+		List<Map<String, Object>> all = new ArrayList<Map<String, Object>>();
+		try {
+			for (Object object : new Yaml().loadAll(inStream)) {
+				if (object instanceof Map) {
+					all.add((Map<String, Object>) object);
+				}
+			}
+		} finally {
+			try {
+				inStream.close();
+			} catch (Exception e) {
+				// nothing
+			}
+		}
+		return new Documents(Collections.unmodifiableList(all));
+	}
+
+	private static Map<String, Object> copyMap(Map<?, ?> map) {
+		Map<String, Object> copy = new LinkedHashMap<String, Object>();
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			copy.put(String.valueOf(entry.getKey()), copyValue(entry.getValue()));
+		}
+		return copy;
+	}
+
+	private static Object copyValue(Object value) {
+		if (value instanceof Map) {
+			return copyMap((Map<?, ?>) value);
+		}
+		if (value instanceof List) {
+			List<Object> copy = new ArrayList<Object>();
+			for (Object item : (List<?>) value) {
+				copy.add(copyValue(item));
+			}
+			return copy;
+		}
+		if (value instanceof Date) {
+			return new Date(((Date) value).getTime());
+		}
+		return value; // Strings, numbers, booleans: immutable
+	}
+
+	static String getRelativePath(Class<?> clazz) {
+		String className = clazz.getName();
+		className = className.replace("common.data.beans.", "");
+		className = className.replace("common.data.testdata.", "");
+		className = className.toLowerCase().replace("bean", "");
+		className = className.replace(".", "/");
+		return className;
+	}
+}
@@ -1,12 +1,10 @@
 package common.env;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.util.HashMap;
+import java.util.Map;
 
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.testng.Reporter;
+import common.utils.TestEventLog;
 
 public class EnvConfiguration {
 
@@ -37,76 +35,42 @@ public class EnvConfiguration {
 		if ((env == null) || (env.isEmpty())) {
 			env = "LOCALHOST";
 		}
-		Reporter.log("!!!Test Environment Request is " + env, true);
+		TestEventLog.getInstance().log(TestEventLog.Type.STEP, "!!!Test Environment Request is " + env);
 		return env.toUpperCase();
 	}
 	
-	// Fetch ALL environments available from Excel - Check if desired ENV is in
+	// Fetch ALL environments available from Excel (or its compiled cache) - Check if desired ENV is in
 	// list
 	private String setEnvironmentName(String envName) {
-		boolean envFound = false;
 		this.envName = (envName != null) ? envName : getEnvironmentFromSystem();
 
+		Map<String, Map<String, String>> environments = new HashMap<>();
 		try {
-			// XSSFWorkbook excelBook;
-			FileInputStream excelFile = new FileInputStream(PROPERTY_BASE + PROPERTY_FILE);
-			XSSFWorkbook excelBook = new XSSFWorkbook(excelFile);
-			int sheetCount = excelBook.getNumberOfSheets();
-			// Reporter.log("!!! Sheet Count is " + sheetCount, true);
-			for (int i = 0; i < sheetCount; i++) {
-				String sheetName = excelBook.getSheetName(i);
-				// Reporter.log("!!! Sheet Name: " + sheetName, true);
-				if (sheetName.equals(this.envName)) {
-					envFound = true;
-					break;
-				}
-			}
-			excelFile.close();
-			// excelBook.close();
-			if (!envFound) {
-				Reporter.log("!! Requested Env " + envName + " sheet NOT FOUND - Setting Default !!", true);
-				this.envName = "LOCALHOST";
-			}
+			EnvPropertyCache propertyCache = new EnvPropertyCache(new File(PROPERTY_BASE + PROPERTY_FILE));
+			environments = propertyCache.load();
+			TestEventLog.getInstance().log(TestEventLog.Type.STEP, "!!! Environment properties read from " + (propertyCache.isLoadedFromCache() ? "cache" : PROPERTY_FILE));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		getPropertyPairs();
-		Reporter.log("!!! Test Environment Selected is " + this.envName, true);
+		if (!environments.containsKey(this.envName)) {
+			TestEventLog.getInstance().log(TestEventLog.Type.STEP, "!! Requested Env " + envName + " sheet NOT FOUND - Setting Default !!");
+			this.envName = "LOCALHOST";
+		}
+		getPropertyPairs(environments);
+		TestEventLog.getInstance().log(TestEventLog.Type.STEP, "!!! Test Environment Selected is " + this.envName);
 		return envName;
 	}
 
 	HashMap<String, String> configData = new HashMap<>();
 
 	// Fetch ALL property/value pairs from desired ENV sheet
-	private void getPropertyPairs() {
-		XSSFWorkbook excelBook;
-		XSSFSheet excelSheet;
-		XSSFRow excelRow;
-		int searchKeyColumn = 0;
-		int valueColumn = 1;
-
-		try {
-			FileInputStream excelFile = new FileInputStream(PROPERTY_BASE + PROPERTY_FILE);
-			excelBook = new XSSFWorkbook(excelFile);
-			Reporter.log("GET CONFIG FOR: '" + this.envName + "'", true);
-			excelSheet = excelBook.getSheet(this.envName);
-
-			int rowCount = excelSheet.getLastRowNum() - excelSheet.getFirstRowNum();
-			Reporter.log("FOUND ROWS: " + rowCount, true);
-			for (int i = 0; i <= rowCount; i++) {
-				excelRow = excelSheet.getRow(i);
-				if (excelRow != null) {
-					String rowValue = excelRow.getCell(valueColumn).toString();
-					String rowKey = excelRow.getCell(searchKeyColumn).toString();
-					Reporter.log("ADDING: " + rowKey + " : " + rowValue,
-					 true);
-					configData.put(rowKey, rowValue);
-				}
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
+	private void getPropertyPairs(Map<String, Map<String, String>> environments) {
+		TestEventLog.getInstance().log(TestEventLog.Type.STEP, "GET CONFIG FOR: '" + this.envName + "'");
+		Map<String, String> pairs = environments.get(this.envName);
+		if (pairs != null) {
+			TestEventLog.getInstance().log(TestEventLog.Type.STEP, "FOUND ROWS: " + pairs.size());
+			configData.putAll(pairs);
 		}
-
 	}
 
 	// Fetch value based on property(key)
@@ -114,7 +78,7 @@ public class EnvConfiguration {
 		if (configData.containsKey(key)) {
 			return configData.get(key);
 		} else {
-			Reporter.log("!! PROPERTY '" + key + "' NOT FOUND !!", true);
+			TestEventLog.getInstance().log(TestEventLog.Type.STEP, "!! PROPERTY '" + key + "' NOT FOUND !!");
 			return "";
 		}
 	}
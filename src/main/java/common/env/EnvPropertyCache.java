@@ -0,0 +1,155 @@
+package common.env;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Reporter;
+
+import common.utils.ExcelStreamReader;
+
+/**
+ * This class keeps a compiled copy of the environment properties workbook, next to it
+ * (env_properties.xlsx -> env_properties.xlsx.cache), so startup does not need POI.
+ * - The cache holds the property/value pairs of ALL sheets (environments).
+ * - It is valid while the workbook's modification time and size are the ones it was built from.
+ * - Otherwise the workbook is read (streamed, see ExcelStreamReader) and the cache rewritten.
+ *   The cache is written to a temp file then renamed, so parallel (forked) JVMs never read half a file.
+ *
+ * @author mlabbe
+ *
+ */
+class EnvPropertyCache {
+
+	private static final int FORMAT = 0x454e5631; // 'ENV1'
+
+	private final File workbook;
+	private final File cacheFile;
+	private boolean loadedFromCache = false;
+
+	EnvPropertyCache(File workbook) {
+		this.workbook = workbook;
+		this.cacheFile = new File(workbook.getPath() + ".cache");
+	}
+
+	/**
+	 * Returns the properties of all environments
+	 * @return Map		sheet name -> (property -> value), in workbook order
+	 * @throws Exception		if the workbook can't be read
+	 */
+	Map<String, Map<String, String>> load() throws Exception {
+		long lastModified = workbook.lastModified();
+		long length = workbook.length();
+		Map<String, Map<String, String>> sheets = readCache(lastModified, length);
+		loadedFromCache = (sheets != null);
+		if (loadedFromCache) {
+			return sheets;
+		}
+
+		sheets = readWorkbook();
+		try {
+			writeCache(sheets, lastModified, length);
+		} catch (IOException e) {
+			Reporter.log("-- Environment property cache NOT written: " + e.getMessage(), true);
+		}
+		return sheets;
+	}
+
+	/**
+	 * Returns true if the last load() was read from the cache (not the workbook)
+	 * @return boolean		true if read from the cache
+	 */
+	boolean isLoadedFromCache() {
+		return loadedFromCache;
+	}
+
+	/*
+	 * Reads the cache, null if missing, stale or unreadable
+	 */
+	private Map<String, Map<String, String>> readCache(long lastModified, long length) {
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+			if (in.readInt() != FORMAT || in.readLong() != lastModified || in.readLong() != length) {
+				return null;
+			}
+			Map<String, Map<String, String>> sheets = new LinkedHashMap<String, Map<String, String>>();
+			int sheetCount = in.readInt();
+			for (int i = 0; i < sheetCount; i++) {
+				String sheetName = in.readUTF();
+				int pairCount = in.readInt();
+				Map<String, String> pairs = new LinkedHashMap<String, String>();
+				for (int j = 0; j < pairCount; j++) {
+					pairs.put(in.readUTF(), in.readUTF());
+				}
+				sheets.put(sheetName, pairs);
+			}
+			return sheets;
+		} catch (IOException e) {
+			return null; // Corrupt or older format: rebuilt from the workbook
+		}
+	}
+
+	private void writeCache(Map<String, Map<String, String>> sheets, long lastModified, long length) throws IOException {
+		File tempFile = new File(cacheFile.getPath() + "." + System.nanoTime() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(FORMAT);
+				out.writeLong(lastModified);
+				out.writeLong(length);
+				out.writeInt(sheets.size());
+				for (Map.Entry<String, Map<String, String>> sheet : sheets.entrySet()) {
+					out.writeUTF(sheet.getKey());
+					out.writeInt(sheet.getValue().size());
+					for (Map.Entry<String, String> pair : sheet.getValue().entrySet()) {
+						out.writeUTF(pair.getKey());
+						out.writeUTF(pair.getValue());
+					}
+				}
+			}
+			try {
+				Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/*
+	 * Reads the property/value pairs (columns A and B) of every sheet
+	 */
+	private Map<String, Map<String, String>> readWorkbook() throws Exception {
+		int searchKeyColumn = 0;
+		int valueColumn = 1;
+		Map<String, Map<String, String>> sheets = new LinkedHashMap<String, Map<String, String>>();
+		List<String> sheetNames = ExcelStreamReader.getSheetNames(workbook.getPath());
+		for (String sheetName : sheetNames) {
+			Map<String, String> pairs = new LinkedHashMap<String, String>();
+			try (ExcelStreamReader excelSheet = new ExcelStreamReader(workbook.getPath(), sheetName)) {
+				List<String> excelRow;
+				while ((excelRow = excelSheet.nextRow()) != null) {
+					if (excelRow.size() > searchKeyColumn) {
+						String rowValue = (excelRow.size() > valueColumn) ? excelRow.get(valueColumn) : "";
+						pairs.put(excelRow.get(searchKeyColumn), rowValue);
+					}
+				}
+			}
+			sheets.put(sheetName, pairs);
+		}
+		return sheets;
+	}
+}
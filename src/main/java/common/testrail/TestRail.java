@@ -3,12 +3,16 @@ package common.testrail;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.testng.Reporter;
+
+import common.utils.TestEventLog;
 
 
 /**
@@ -25,17 +29,32 @@ public class TestRail {
 
 	TestRailAPIClient client = null;
 
+	public TestRail() {
+	}
+
+	/*
+	 * Uses the given client instead of the default connection (e.g. a local stub)
+	 */
+	TestRail(TestRailAPIClient client) {
+		this.client = client;
+	}
+
 	// TestRails test result status options
 	public final static Integer PASSED = 1;
 	public final static Integer BLOCKED = 2;
 	public final static Integer UNTESTED = 3;
 	public final static Integer RETEST = 4;
 	public final static Integer FAILED = 5;
+
+	private static final int casesPageSize = 250;
 	
 	/*
 	 * Set the TestRailAPI client
 	 */
 	private void setClient() {
+		if (client != null) {
+			return;
+		}
 		client = new TestRailAPIClient(testRailURL);
 		client.setUser(testRailUser);
 		client.setPassword(testRailPassword);		
@@ -59,9 +78,53 @@ public class TestRail {
 	 * Get the Test Case
 	 */
 	public JSONObject getTestCase(String caseID) throws Exception {
+		setClient();
 		return (JSONObject) client.sendGet("get_case/"+caseID);
 	}
 
+	/*
+	 * Get the Run, based on Run ID
+	 */
+	private JSONObject getRun(String runID) throws MalformedURLException, IOException, TestRailAPIException {
+		return (JSONObject) client.sendGet("get_run/"+runID);
+	}
+
+	/*
+	 * Get the Test Cases of a project and suite, updated after the given time (0 for all).
+	 * Follows the pages of the response (TestRail 6.7+), or takes the single list (older TestRail).
+	 */
+	List<JSONObject> getCases(Long projectID, Long suiteID, long updatedAfter) throws MalformedURLException, IOException, TestRailAPIException {
+		List<JSONObject> cases = new ArrayList<JSONObject>();
+		String uri = "get_cases/"+projectID;
+		if (suiteID != null) {
+			uri = uri+"&suite_id="+suiteID;
+		}
+		if (updatedAfter > 0) {
+			uri = uri+"&updated_after="+updatedAfter;
+		}
+		int offset = 0;
+		while (true) {
+			Object response = client.sendGet(uri+"&limit="+casesPageSize+"&offset="+offset);
+			JSONArray page;
+			Object nextLink = null;
+			if (response instanceof JSONArray) {
+				page = (JSONArray) response;
+			} else {
+				page = (JSONArray) ((JSONObject) response).get("cases");
+				JSONObject links = (JSONObject) ((JSONObject) response).get("_links");
+				nextLink = (links == null) ? null : links.get("next");
+			}
+			for (Object thisCase : page) {
+				cases.add((JSONObject) thisCase);
+			}
+			if (nextLink == null || page.isEmpty()) {
+				break;
+			}
+			offset = offset + page.size();
+		}
+		return cases;
+	}
+
 	/*
 	 * Get the desired Run, based on passing in
 	 * Entries and the string to search for in Run Name
@@ -80,36 +143,51 @@ public class TestRail {
 	}
 	
 	/*
-	 * Returns true/false if the given Test Case ID
-	 * is found in list of tests for the given Run ID.
+	 * Returns the IDs of the test cases in the given Run ID.
 	 */
-	private boolean runTestCaseIDFound(Long runID, Long testCaseID) throws MalformedURLException, IOException, TestRailAPIException {
-		boolean foundIt = false;
+	Set<Long> getRunCaseIDs(Long runID) throws MalformedURLException, IOException, TestRailAPIException {
+		Set<Long> caseIDs = new HashSet<Long>();
 		JSONArray run = (JSONArray) client.sendGet("get_tests/"+runID);
 		for (int i=0; i<run.size(); i++) {
 			JSONObject thisTest = (JSONObject) run.get(i);
-			if ((Long)thisTest.get("case_id") == testCaseID.longValue()) {
-				foundIt = true;
-				break;
-			}
+			caseIDs.add((Long) thisTest.get("case_id"));
 		}
-		return foundIt;
+		return caseIDs;
 	}
 	
 	/*
-	 * Updates a result for a given run and test
-	 * Specify the status and any comment.
+	 * Returns the Run ID, based on passing in a
+	 * Plan ID and the string to search for in Run Name, or a Run ID.
 	 */
-	@SuppressWarnings("rawtypes")
-	private JSONObject updateTestResult(Long runID, Long testID, Map resultData) throws MalformedURLException, IOException, TestRailAPIException {
-		String postString = "add_result_for_case/"+runID+"/"+testID;
-		return (JSONObject) client.sendPost(postString, resultData);
+	Long resolveRunID(String ID, String planOrRun, String runSearch) throws MalformedURLException, IOException, TestRailAPIException {
+		// If PlanID, then need these steps to get plan, and plan entries(runs), find my run
+		if (planOrRun.toLowerCase().equals("plan")) {
+			// Get Plan
+			JSONObject thisPlan = getPlan(ID);
+			// Get Entries
+			JSONArray thisEntries = getPlanEntries(thisPlan);
+			// Get RunID
+			return getRunID(thisEntries, runSearch);
+		}
+		return Long.parseLong(ID);
 	}
 	
-
+	/*
+	 * Adds results for several test cases of a given run, in one request.
+	 * Each result holds the case_id, the status_id and any comment.
+	 */
+	@SuppressWarnings("unchecked")
+	JSONArray addResultsForCases(Long runID, List<JSONObject> results) throws MalformedURLException, IOException, TestRailAPIException {
+		JSONObject resultData = new JSONObject();
+		JSONArray resultList = new JSONArray();
+		resultList.addAll(results);
+		resultData.put("results", resultList);
+		return (JSONArray) client.sendPost("add_results_for_cases/"+runID, resultData);
+	}
 	
 	/**
-	 * Submit a Test Run Result to TestRail
+	 * Submit a Test Run Result to TestRail.
+	 * The result is queued, and sent in the background by the TestRailPublisher.
 	 * @param ID
 	 * 		The ID (plan or run)
 	 * @param planOrRun
@@ -127,50 +205,15 @@ public class TestRail {
 	 * @throws Exception
 	 * 		throws Exception
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public void addRunTestResult(String ID, String planOrRun, String runSearch, Long[] testCases, Integer status, String comment, String browser) throws Exception {
-		Long runID;
-		Map newResult = new HashMap();
-		newResult.put("status_id", status);
-		if (!browser.isEmpty()) {
-			newResult.put("custom_browser", browser);
-		}
-		newResult.put("comment", comment);
-				
-		// Set Client
-		setClient();
-		
-		// If PlanID, then need these steps to get plan, and plan entries(runs), find my run
-		if (planOrRun.toLowerCase().equals("plan")) {
-			// Get Plan
-			JSONObject thisPlan = getPlan(ID);
-			// Get Entries
-			JSONArray thisEntries = getPlanEntries(thisPlan);
-			// Get RunID
-			runID = getRunID(thisEntries, runSearch);
-		} else {
-			runID = Long.parseLong(ID);
-		}
-			
-		// For each Test String, get ID and record result
-		for (Long thisTest : testCases) {
-			// Update Result
-			boolean foundMe = runTestCaseIDFound(runID, thisTest);
-			if (foundMe) { // Only record if Test is Found.
-				Reporter.log("***** TestRail ADD: "+planOrRun+":"+ID+" / test("+thisTest+") / "+runSearch+" / status("+status+") / comment("+comment+")", true);
-				try {
-					JSONObject resultResponse = updateTestResult(runID, thisTest, newResult);
-				} catch (Exception e) {
-					Reporter.log("***** TestRail API ERROR: "+e.getMessage(), true);
-				}
-			} else {
-				Reporter.log("***** TestRail ERROR: Test Case ID "+thisTest+" NOT found in Run ID "+runID, true);
-			}
-		}
+		TestEventLog.getInstance().log(TestEventLog.Type.TESTRAIL_POST, null, "state", "queued", "target", planOrRun + ":" + ID,
+				"cases", Arrays.toString(testCases), "status", status);
+		TestRailPublisher.getInstance().publish(ID, planOrRun, runSearch, testCases, status, comment, browser);
 	}
 
 	/**
-	 * Submit a Test Run Result to TestRail
+	 * Submit a Test Run Result to TestRail.
+	 * The result is queued, and sent in the background by the TestRailPublisher.
 	 * @param ID
 	 * 		The ID (plan or run)
 	 * @param planOrRun
@@ -186,43 +229,41 @@ public class TestRail {
 	 * @throws Exception
 	 * 		throws Exception
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public void addRunTestResult(String ID, String planOrRun, String runSearch, Long[] testCases, Integer status, String comment) throws Exception {
-		Long runID;
-		Map newResult = new HashMap();
-		newResult.put("status_id", status);
-		newResult.put("comment", comment);
-				
-		// Set Client
+		addRunTestResult(ID, planOrRun, runSearch, testCases, status, comment, "");
+	}
+
+	/**
+	 * Returns the metadata of the given test cases of a run.
+	 * Cases are cached on disk per project/suite (TestRailCaseCache), so only
+	 * cases updated since the last call are fetched.
+	 * @param runID
+	 * 		The Run ID
+	 * @param caseIDs
+	 * 		The test case IDs
+	 * @return Map
+	 * 		The test cases, by case ID
+	 * @throws Exception
+	 * 		throws Exception
+	 */
+	public Map<Long, JSONObject> getRunTestCases(String runID, List<String> caseIDs) throws Exception {
 		setClient();
-		
-		// If PlanID, then need these steps to get plan, and plan entries(runs), find my run
-		if (planOrRun.toLowerCase().equals("plan")) {
-			// Get Plan
-			JSONObject thisPlan = getPlan(ID);
-			// Get Entries
-			JSONArray thisEntries = getPlanEntries(thisPlan);
-			// Get RunID
-			runID = getRunID(thisEntries, runSearch);
-		} else {
-			runID = Long.parseLong(ID);
-		}
-			
-		// For each Test String, get ID and record result
-		for (Long thisTest : testCases) {
-			// Update Result
-			boolean foundMe = runTestCaseIDFound(runID, thisTest);
-			if (foundMe) { // Only record if Test is Found.
-				Reporter.log("***** TestRail ADD: "+planOrRun+":"+ID+" / test("+thisTest+") / "+runSearch+" / status("+status+") / comment("+comment+")", true);
-				try {
-					JSONObject resultResponse = updateTestResult(runID, thisTest, newResult);
-				} catch (Exception e) {
-					Reporter.log("***** TestRail API ERROR: "+e.getMessage(), true);
-				}
-			} else {
-				Reporter.log("***** TestRail ERROR: Test Case ID "+thisTest+" NOT found in Run ID "+runID, true);
-			}
+		JSONObject run = getRun(runID);
+		Long projectID = (Long) run.get("project_id");
+		Long suiteID = (Long) run.get("suite_id");
+		List<Long> ids = new ArrayList<Long>();
+		for (String caseID : caseIDs) {
+			ids.add(Long.parseLong(caseID));
 		}
+		return new TestRailCaseCache(this, projectID, suiteID).getCases(ids);
+	}
+
+	/**
+	 * Drops the cached plan/run IDs and run case IDs used when submitting results.
+	 * Call if runs or cases are added to TestRail while tests are running.
+	 */
+	public void refreshRunCache() {
+		TestRailPublisher.getInstance().getRunCache().refresh();
 	}
 
 	/**
@@ -12,14 +12,10 @@
 package common.testrail;
 
 import java.net.URL;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.BufferedReader;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
@@ -32,6 +28,11 @@ public class TestRailAPIClient {
 	private String m_user;
 	private String m_password;
 	private String m_url;
+	private String m_authorization;
+	private TestRailTransport m_transport = new TestRailHttpTransport();
+	private TestRailRetryPolicy m_retryPolicy = new TestRailRetryPolicy();
+	private TestRailRateLimiter m_rateLimiter = TestRailRateLimiter.getInstance();
+	private TestRailCircuitBreaker m_circuitBreaker = TestRailCircuitBreaker.getInstance();
 
 	public TestRailAPIClient(String base_url) {
 		if (!base_url.endsWith("/")) {
@@ -52,6 +53,7 @@ public class TestRailAPIClient {
 
 	public void setUser(String user) {
 		this.m_user = user;
+		this.m_authorization = null;
 	}
 
 	/**
@@ -66,6 +68,64 @@ public class TestRailAPIClient {
 
 	public void setPassword(String password) {
 		this.m_password = password;
+		this.m_authorization = null;
+	}
+
+	/**
+	 * Get/Set Transport
+	 * 
+	 * @return TestRailTransport Returns/sets the transport used to send the
+	 *         API requests (TestRailHttpTransport by default).
+	 */
+	public TestRailTransport getTransport() {
+		return this.m_transport;
+	}
+
+	public void setTransport(TestRailTransport transport) {
+		this.m_transport = transport;
+	}
+
+	/**
+	 * Get/Set Retry Policy
+	 * 
+	 * @return TestRailRetryPolicy Returns/sets when failed requests are
+	 *         retried.
+	 */
+	public TestRailRetryPolicy getRetryPolicy() {
+		return this.m_retryPolicy;
+	}
+
+	public void setRetryPolicy(TestRailRetryPolicy retryPolicy) {
+		this.m_retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Get/Set Rate Limiter
+	 * 
+	 * @return TestRailRateLimiter Returns/sets the limiter for the request
+	 *         rate (shared by all clients by default).
+	 */
+	public TestRailRateLimiter getRateLimiter() {
+		return this.m_rateLimiter;
+	}
+
+	public void setRateLimiter(TestRailRateLimiter rateLimiter) {
+		this.m_rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Get/Set Circuit Breaker
+	 * 
+	 * @return TestRailCircuitBreaker Returns/sets the circuit breaker that
+	 *         stops requests while TestRail is down (shared by all clients by
+	 *         default).
+	 */
+	public TestRailCircuitBreaker getCircuitBreaker() {
+		return this.m_circuitBreaker;
+	}
+
+	public void setCircuitBreaker(TestRailCircuitBreaker circuitBreaker) {
+		this.m_circuitBreaker = circuitBreaker;
 	}
 
 	/**
@@ -127,63 +187,67 @@ public class TestRailAPIClient {
 			throws MalformedURLException, IOException, TestRailAPIException {
 		URL url = new URL(this.m_url + uri);
 
-		// Create the connection object and set the required HTTP method
-		// (GET/POST) and headers (content type and basic auth).
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		conn.addRequestProperty("Content-Type", "application/json");
-
-		String auth = getAuthorization(this.m_user, this.m_password);
-		conn.addRequestProperty("Authorization", "Basic " + auth);
-
-		if (method == "POST") {
-			// Add the POST arguments, if any. We just serialize the passed
-			// data object (i.e. a dictionary) and then add it to the
-			// request body.
-			if (data != null) {
-				byte[] block = JSONValue.toJSONString(data).getBytes("UTF-8");
-
-				conn.setDoOutput(true);
-				OutputStream ostream = conn.getOutputStream();
-				ostream.write(block);
-				ostream.flush();
-			}
+		// Serialize the passed data object (i.e. a dictionary) for POST
+		// requests, if any.
+		byte[] block = null;
+		if (method.equals("POST") && data != null) {
+			block = JSONValue.toJSONString(data).getBytes(StandardCharsets.UTF_8);
 		}
 
-		// Execute the actual web request (if it wasn't already initiated
-		// by getOutputStream above) and record any occurred errors (we use
-		// the error stream in this case).
-		int status = conn.getResponseCode();
-
-		InputStream istream;
-		if (status != 200) {
-			istream = conn.getErrorStream();
-			if (istream == null) {
-				throw new TestRailAPIException(
-						"TestRail API return HTTP " + status + " (No additional error message received)");
+		// Send, retrying throttled and failed requests as the retry policy
+		// allows. Requests wait for the rate limiter, and fail right away
+		// while the circuit breaker is open. Every attempt let through by
+		// the circuit breaker records an outcome, or releases it.
+		for (int attempt = 1;; attempt++) {
+			if (!this.m_circuitBreaker.allowRequest()) {
+				throw new TestRailAPIException("TestRail API not called (circuit open after repeated failures)");
 			}
-		} else {
-			istream = conn.getInputStream();
-		}
-
-		// Read the response body, if any, and deserialize it from JSON.
-		String text = "";
-		if (istream != null) {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(istream, "UTF-8"));
-
-			String line;
-			while ((line = reader.readLine()) != null) {
-				text += line;
-				text += System.getProperty("line.separator");
+			boolean recorded = false;
+			try {
+				try {
+					this.m_rateLimiter.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted waiting to call the TestRail API");
+				}
+				try {
+					Object result = sendOnce(method, url, block);
+					this.m_circuitBreaker.recordSuccess();
+					recorded = true;
+					return result;
+				} catch (IOException | TestRailAPIException e) {
+					if (isDown(e)) {
+						this.m_circuitBreaker.recordFailure();
+					} else {
+						this.m_circuitBreaker.recordSuccess(); // TestRail answered (even if throttled)
+					}
+					recorded = true;
+					if (!this.m_retryPolicy.shouldRetry(method, attempt, e)) {
+						throw e;
+					}
+					long delay = this.m_retryPolicy.getDelayMillis(attempt, e);
+					if (TestRailRetryPolicy.isThrottled(e)) {
+						this.m_rateLimiter.pause(delay);
+					}
+					try {
+						Thread.sleep(delay);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw e;
+					}
+				}
+			} finally {
+				if (!recorded) {
+					this.m_circuitBreaker.release();
+				}
 			}
-			reader.close();
 		}
+	}
 
-		Object result;
-		if (text != "") {
-			result = JSONValue.parse(text);
-		} else {
-			result = new JSONObject();
-		}
+	private Object sendOnce(String method, URL url, byte[] block) throws IOException, TestRailAPIException {
+		TestRailResponse response = this.m_transport.send(method, url, getAuthorization(), block);
+		int status = response.getStatus();
+		Object result = response.getBody();
 
 		// Check for any occurred errors and add additional details to
 		// the exception message, if any (e.g. the error message returned
@@ -197,65 +261,30 @@ public class TestRailAPIClient {
 				}
 			}
 
-			throw new TestRailAPIException("TestRail API returned HTTP " + status + "(" + error + ")");
+			throw new TestRailAPIException("TestRail API returned HTTP " + status + "(" + error + ")", status,
+					response.getRetryAfter());
 		}
 		return result;
 	}
 
-	private static String getAuthorization(String user, String password) {
-		try {
-			return getBase64((user + ":" + password).getBytes("UTF-8"));
-		} catch (UnsupportedEncodingException e) {
-			// Not thrown
+	/*
+	 * Connection errors and server errors. Not throttling or client errors.
+	 */
+	private static boolean isDown(Exception e) {
+		if (e instanceof TestRailAPIException) {
+			return ((TestRailAPIException) e).getStatus() >= 500;
 		}
-		return "";
+		return true;
 	}
 
-	private static String getBase64(byte[] buffer) {
-		final char[] map = { 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R',
-				'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm',
-				'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z', '0', '1', '2', '3', '4', '5', '6', '7',
-				'8', '9', '+', '/' };
-
-		StringBuffer sb = new StringBuffer();
-		for (int i = 0; i < buffer.length; i++) {
-			byte b0 = buffer[i++], b1 = 0, b2 = 0;
-
-			int bytes = 3;
-			if (i < buffer.length) {
-				b1 = buffer[i++];
-				if (i < buffer.length) {
-					b2 = buffer[i];
-				} else {
-					bytes = 2;
-				}
-			} else {
-				bytes = 1;
-			}
-
-			int total = (b0 << 16) | (b1 << 8) | b2;
-
-			switch (bytes) {
-			case 3:
-				sb.append(map[(total >> 18) & 0x3f]);
-				sb.append(map[(total >> 12) & 0x3f]);
-				sb.append(map[(total >> 6) & 0x3f]);
-				sb.append(map[total & 0x3f]);
-				break;
-			case 2:
-				sb.append(map[(total >> 18) & 0x3f]);
-				sb.append(map[(total >> 12) & 0x3f]);
-				sb.append(map[(total >> 6) & 0x3f]);
-				sb.append('=');
-				break;
-			case 1:
-				sb.append(map[(total >> 18) & 0x3f]);
-				sb.append(map[(total >> 12) & 0x3f]);
-				sb.append('=');
-				sb.append('=');
-				break;
-			}
+	/*
+	 * The Basic auth header value, encoded once per user/password.
+	 */
+	private String getAuthorization() {
+		if (this.m_authorization == null) {
+			this.m_authorization = "Basic " + Base64.getEncoder()
+					.encodeToString((this.m_user + ":" + this.m_password).getBytes(StandardCharsets.UTF_8));
 		}
-		return sb.toString();
+		return this.m_authorization;
 	}
 }
@@ -13,7 +13,30 @@ package common.testrail;
 
 @SuppressWarnings("serial")
 public class TestRailAPIException extends Exception {
+	private final int status;
+	private final String retryAfter;
+
 	public TestRailAPIException(String message) {
+		this(message, 0, null);
+	}
+
+	public TestRailAPIException(String message, int status, String retryAfter) {
 		super(message);
+		this.status = status;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return int The HTTP status returned by TestRail (0 if none).
+	 */
+	public int getStatus() {
+		return this.status;
+	}
+
+	/**
+	 * @return String The Retry-After header returned by TestRail (null if none).
+	 */
+	public String getRetryAfter() {
+		return this.retryAfter;
 	}
 }
@@ -0,0 +1,195 @@
+package common.testrail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.testng.Reporter;
+
+/**
+ * This class caches TestRail case metadata on disk, per project and suite.
+ * - The cache file holds each case (by case ID, with its updated_on), and the time of the last sync.
+ * - On each use, only the cases updated since the last sync are fetched, in pages with get_cases.
+ * - Cases still missing (e.g. get_cases failed) are fetched with get_case, a few at a time.
+ *
+ * The cache folder is 'target/testrail-cases', overridable with the 'testrail_cache_dir' system property.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailCaseCache {
+
+	public static final int defaultFetchThreads = 8;
+	private static final long syncOverlapSeconds = 300; // Re-fetch a little before the last sync, for clock skew
+
+	private final TestRail testRail;
+	private final File cacheFile;
+	private final Long projectID;
+	private final Long suiteID;
+	private final Map<Long, JSONObject> cases = new HashMap<Long, JSONObject>();
+	private long syncedAt = 0;
+
+	TestRailCaseCache(TestRail testRail, Long projectID, Long suiteID) {
+		this.testRail = testRail;
+		this.projectID = projectID;
+		this.suiteID = suiteID;
+		String folder = System.getProperty("testrail_cache_dir", System.getProperty("user.dir") + "/target/testrail-cases");
+		this.cacheFile = new File(folder, "project-" + projectID + "-suite-" + suiteID + ".json");
+		load();
+	}
+
+	/**
+	 * Returns the metadata of the given cases, syncing the cache first
+	 * @param caseIDs		the case IDs
+	 * @return Map		the cases, by case ID (cases that could not be fetched are left out)
+	 * @throws Exception		throws Exception
+	 */
+	public Map<Long, JSONObject> getCases(List<Long> caseIDs) throws Exception {
+		long syncStart = System.currentTimeMillis() / 1000;
+		try {
+			int updated = 0;
+			for (JSONObject thisCase : testRail.getCases(projectID, suiteID, Math.max(0, syncedAt - syncOverlapSeconds))) {
+				if (put(thisCase)) {
+					updated++;
+				}
+			}
+			syncedAt = syncStart;
+			Reporter.log("-- TestRail case cache: " + updated + " case(s) new or updated since last sync", true);
+		} catch (Exception e) {
+			Reporter.log("-- TestRail case cache: get_cases failed (" + e.getMessage() + "), fetching cases one by one", true);
+		}
+
+		List<Long> missing = new ArrayList<Long>();
+		for (Long caseID : caseIDs) {
+			if (!cases.containsKey(caseID)) {
+				missing.add(caseID);
+			}
+		}
+		if (!missing.isEmpty()) {
+			fetch(missing);
+		}
+		save();
+
+		Map<Long, JSONObject> found = new HashMap<Long, JSONObject>();
+		for (Long caseID : caseIDs) {
+			JSONObject thisCase = cases.get(caseID);
+			if (thisCase != null) {
+				found.put(caseID, thisCase);
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Fetches cases with get_case, on a bounded pool ('testrail_fetch_threads').
+	 * Requests are still paced by the shared TestRailRateLimiter.
+	 */
+	private void fetch(List<Long> caseIDs) throws InterruptedException {
+		int threads = Math.max(1, Math.min(caseIDs.size(), Integer.getInteger("testrail_fetch_threads", defaultFetchThreads)));
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "testrail-case-fetch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Callable<JSONObject>> tasks = new ArrayList<Callable<JSONObject>>();
+			for (final Long caseID : caseIDs) {
+				tasks.add(new Callable<JSONObject>() {
+					@Override
+					public JSONObject call() throws Exception {
+						return testRail.getTestCase(Long.toString(caseID));
+					}
+				});
+			}
+			List<Future<JSONObject>> results = executor.invokeAll(tasks);
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					put(results.get(i).get());
+				} catch (Exception e) {
+					Reporter.log("-- TestRail case cache: case " + caseIDs.get(i) + " NOT fetched: " + e.getMessage(), true);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * Adds/replaces a case, unless the cached copy is as recent. Returns true if changed.
+	 */
+	private boolean put(JSONObject thisCase) {
+		Long caseID = ((Number) thisCase.get("id")).longValue();
+		JSONObject cached = cases.get(caseID);
+		if (cached != null && updatedOn(cached) >= updatedOn(thisCase)) {
+			return false;
+		}
+		cases.put(caseID, thisCase);
+		return true;
+	}
+
+	private static long updatedOn(JSONObject thisCase) {
+		Object updatedOn = thisCase.get("updated_on");
+		return (updatedOn instanceof Number) ? ((Number) updatedOn).longValue() : 0;
+	}
+
+	private void load() {
+		if (!cacheFile.exists()) {
+			return;
+		}
+		try (Reader reader = new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8)) {
+			JSONObject cache = (JSONObject) new JSONParser().parse(reader);
+			JSONObject cachedCases = (JSONObject) cache.get("cases");
+			for (Object thisCase : cachedCases.values()) {
+				put((JSONObject) thisCase);
+			}
+			syncedAt = ((Number) cache.get("synced_at")).longValue();
+		} catch (Exception e) {
+			Reporter.log("-- TestRail case cache: ignoring unreadable " + cacheFile.getPath() + ": " + e.getMessage(), true);
+			cases.clear();
+			syncedAt = 0;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void save() {
+		JSONObject cachedCases = new JSONObject();
+		for (Map.Entry<Long, JSONObject> thisCase : cases.entrySet()) {
+			cachedCases.put(thisCase.getKey().toString(), thisCase.getValue());
+		}
+		JSONObject cache = new JSONObject();
+		cache.put("synced_at", syncedAt);
+		cache.put("cases", cachedCases);
+
+		cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+		File tempFile = new File(cacheFile.getPath() + ".tmp");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+			cache.writeJSONString(writer);
+		} catch (Exception e) {
+			Reporter.log("-- TestRail case cache: could not write " + tempFile.getPath() + ": " + e.getMessage(), true);
+			return;
+		}
+		cacheFile.delete();
+		if (!tempFile.renameTo(cacheFile)) {
+			Reporter.log("-- TestRail case cache: could not write " + cacheFile.getPath(), true);
+		}
+	}
+}
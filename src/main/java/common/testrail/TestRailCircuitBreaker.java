@@ -0,0 +1,104 @@
+package common.testrail;
+
+import org.testng.Reporter;
+
+/**
+ * This class stops calling TestRail while it is down, for all threads of the JVM.
+ * - After a number of failed requests in a row (retries included), the circuit opens,
+ *   and requests fail right away.
+ * - Once the open time has passed, one request is let through. The circuit closes
+ *   if TestRail answers it, and opens again if it fails. A trial that ends without
+ *   an answer either way (e.g. interrupted) is released, so the next request is the trial.
+ *
+ * While the circuit is open, the TestRailPublisher keeps the results in its spool.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailCircuitBreaker {
+
+	public static final int defaultFailureThreshold = 5;
+	public static final long defaultOpenMillis = 60000;
+
+	private static final TestRailCircuitBreaker instance = new TestRailCircuitBreaker(defaultFailureThreshold,
+			Long.getLong("testrail_circuit_open_millis", defaultOpenMillis));
+
+	private final int failureThreshold;
+	private final long openMillis;
+	private int failures = 0;
+	private long openedAt = 0;
+	private boolean open = false;
+	private boolean trialInFlight = false;
+	private Thread trialThread = null;
+
+	/**
+	 * @param failureThreshold		failed requests in a row that open the circuit
+	 * @param openMillis		milliseconds before a trial request is let through
+	 */
+	public TestRailCircuitBreaker(int failureThreshold, long openMillis) {
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	public static TestRailCircuitBreaker getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns true if a request may be sent now
+	 * @return boolean		true if closed, or if this is the trial request
+	 */
+	public synchronized boolean allowRequest() {
+		if (!open) {
+			return true;
+		}
+		if (!trialInFlight && System.currentTimeMillis() - openedAt >= openMillis) {
+			trialInFlight = true;
+			trialThread = Thread.currentThread();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if requests are currently failing right away
+	 * @return boolean		true if open and not yet due for a trial
+	 */
+	public synchronized boolean isOpen() {
+		return open && (trialInFlight || System.currentTimeMillis() - openedAt < openMillis);
+	}
+
+	public synchronized void recordSuccess() {
+		if (open) {
+			Reporter.log("***** TestRail: reachable again, circuit closed", true);
+		}
+		failures = 0;
+		open = false;
+		trialInFlight = false;
+		trialThread = null;
+	}
+
+	public synchronized void recordFailure() {
+		failures++;
+		if (trialInFlight || (!open && failures >= failureThreshold)) {
+			if (!open) {
+				Reporter.log("***** TestRail: " + failures + " failed requests in a row, circuit open for " + openMillis + "ms", true);
+			}
+			open = true;
+			openedAt = System.currentTimeMillis();
+			trialInFlight = false;
+			trialThread = null;
+		}
+	}
+
+	/**
+	 * Ends a request that got no answer either way (not sent, interrupted, unexpected error).
+	 * If it was the trial request, the next request becomes the trial.
+	 */
+	public synchronized void release() {
+		if (trialInFlight && trialThread == Thread.currentThread()) {
+			trialInFlight = false;
+			trialThread = null;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package common.testrail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * This class is the default TestRailTransport, using HttpURLConnection.
+ * - Connections are kept alive and reused by the JDK (the response is always read
+ *   to the end and closed, and the connection is never disconnected).
+ * - Connect and read timeouts, overridable with the 'testrail_connect_timeout' and
+ *   'testrail_read_timeout' system properties (milliseconds).
+ * - Responses are requested gzipped.
+ * - The JSON is parsed straight from the response stream.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailHttpTransport implements TestRailTransport {
+
+	public static final int defaultConnectTimeoutMillis = 10000;
+	public static final int defaultReadTimeoutMillis = 60000;
+
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+
+	public TestRailHttpTransport() {
+		this(Integer.getInteger("testrail_connect_timeout", defaultConnectTimeoutMillis),
+				Integer.getInteger("testrail_read_timeout", defaultReadTimeoutMillis));
+	}
+
+	/**
+	 * @param connectTimeoutMillis		connect timeout
+	 * @param readTimeoutMillis		read timeout
+	 */
+	public TestRailHttpTransport(int connectTimeoutMillis, int readTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	@Override
+	public TestRailResponse send(String method, URL url, String authorization, byte[] body) throws IOException, TestRailAPIException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setRequestMethod(method);
+		conn.setConnectTimeout(connectTimeoutMillis);
+		conn.setReadTimeout(readTimeoutMillis);
+		conn.setRequestProperty("Content-Type", "application/json");
+		conn.setRequestProperty("Accept-Encoding", "gzip");
+		conn.setRequestProperty("Authorization", authorization);
+
+		if (body != null) {
+			conn.setDoOutput(true);
+			conn.setFixedLengthStreamingMode(body.length);
+			try (OutputStream ostream = conn.getOutputStream()) {
+				ostream.write(body);
+			}
+		}
+
+		int status = conn.getResponseCode();
+		InputStream istream = (status >= 400) ? conn.getErrorStream() : conn.getInputStream();
+		if (istream == null) {
+			return new TestRailResponse(status, null, conn.getHeaderField("Retry-After"));
+		}
+		try {
+			if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+				istream = new GZIPInputStream(istream);
+			}
+			Object result = parse(istream, status);
+			return new TestRailResponse(status, result, conn.getHeaderField("Retry-After"));
+		} finally {
+			drain(istream);
+			istream.close();
+		}
+	}
+
+	/*
+	 * Parses the JSON response. An empty body is an empty JSONObject.
+	 * A body that is not JSON is only an error for a successful request.
+	 */
+	private Object parse(InputStream istream, int status) throws IOException, TestRailAPIException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(istream, StandardCharsets.UTF_8));
+		reader.mark(1);
+		if (reader.read() == -1) {
+			return new JSONObject();
+		}
+		reader.reset();
+		try {
+			return new JSONParser().parse(reader);
+		} catch (ParseException e) {
+			if (status == 200) {
+				throw new TestRailAPIException("TestRail API returned invalid JSON (" + e + ")");
+			}
+			return null;
+		}
+	}
+
+	/*
+	 * Reads what is left, so the connection can be reused.
+	 */
+	private void drain(InputStream istream) {
+		byte[] buffer = new byte[4096];
+		try {
+			while (istream.read(buffer) != -1) {
+				// nothing
+			}
+		} catch (IOException e) {
+			// nothing - the connection won't be reused
+		}
+	}
+}
@@ -0,0 +1,679 @@
+package common.testrail;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.testng.Reporter;
+
+import common.utils.TestEventLog;
+
+/**
+ * This class sends TestRail results in the background, so tests don't wait on TestRail.
+ * - Results are queued by TestRail.addRunTestResult, and sent by a single publisher thread.
+ * - Run IDs and the case IDs of each run are resolved once (TestRailRunCache).
+ * - Results are sent with add_results_for_cases, one request per run, once the batch size
+ *   is reached or the flush interval has passed (whichever comes first).
+ * - Every queued result is appended to a spool file (JSON, one result per line) by the
+ *   publisher thread, so tests never wait on the file. The spool is rewritten as results
+ *   are sent, and deleted once everything is sent.
+ * - Each process has its own spool (testrail-spool-<pid>-<start>.jsonl), locked while the
+ *   process is running, so forked or parallel builds never touch each other's spool.
+ * - Spools left by a process that died (or could not reach TestRail) are only replayed when
+ *   asked, with the 'testrail_replay_spool' system property. A spool that is still locked
+ *   (its process is running) is never replayed.
+ * - Results that failed to send are retried after the flush interval, unless the
+ *   TestRailCircuitBreaker is open (TestRail is down); then they just stay in the spool.
+ *   Retries, backoff and rate limiting all happen on the publisher thread, never in tests.
+ * - Results that can never be sent (HTTP 400/403/404, or no run matching the run search)
+ *   are logged and moved to a dead letter file next to the spool (testrail-spool-<pid>-<start>-dead.jsonl),
+ *   with the error, instead of being retried.
+ * - flush() is called at the end of the suite, and from a shutdown hook.
+ *
+ * To test against a local HTTP stub, create a publisher with a client for the stub URL.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailPublisher {
+
+	public static final int defaultBatchSize = 50;
+	public static final long defaultFlushMillis = 5000;
+	public static final long defaultShutdownMillis = 60000;
+
+	private static TestRailPublisher instance = null;
+
+	private static final String spoolPrefix = "testrail-spool";
+	private static final String processID = ManagementFactory.getRuntimeMXBean().getName().split("@")[0]
+			+ "-" + ManagementFactory.getRuntimeMXBean().getStartTime();
+
+	private static final JSONObject flushMarker = new JSONObject(); // Sends the current batch right away
+
+	private final TestRail testRail;
+	private final TestRailRunCache runCache;
+	private final TestRailCircuitBreaker circuitBreaker;
+	private final File spoolFile;
+	private final File deadLetterFile;
+	private final int batchSize;
+	private final long flushMillis;
+
+	private final BlockingQueue<JSONObject> queue = new LinkedBlockingQueue<JSONObject>();
+	private final Map<Long, JSONObject> unsent = new LinkedHashMap<Long, JSONObject>(); // Guarded by itself; the spool contents
+	private final ConcurrentLinkedQueue<JSONObject> toSpool = new ConcurrentLinkedQueue<JSONObject>(); // Added holding the unsent lock
+	private Writer spoolWriter = null; // Publisher thread only
+	private final FileChannel spoolLock;
+	private final AtomicLong sequence = new AtomicLong();
+	private final Object doneLock = new Object();
+	private long outstanding = 0; // Guarded by doneLock; queued but not yet attempted
+	private volatile boolean running = true;
+	private final Thread publisherThread;
+
+	/**
+	 * @param client		the TestRail API client
+	 * @param spoolFile		the spool file
+	 * @param batchSize		max results per request
+	 * @param flushMillis		max milliseconds a result waits in the queue
+	 */
+	public TestRailPublisher(TestRailAPIClient client, File spoolFile, int batchSize, long flushMillis) {
+		this(client, spoolFile, batchSize, flushMillis, new ArrayList<File>());
+	}
+
+	/**
+	 * @param client		the TestRail API client
+	 * @param spoolFile		the spool file
+	 * @param batchSize		max results per request
+	 * @param flushMillis		max milliseconds a result waits in the queue
+	 * @param leftoverSpools		spools left by previous runs, to replay (see findLeftoverSpools)
+	 */
+	public TestRailPublisher(TestRailAPIClient client, File spoolFile, int batchSize, long flushMillis, List<File> leftoverSpools) {
+		this.testRail = new TestRail(client);
+		this.runCache = new TestRailRunCache(testRail);
+		this.circuitBreaker = client.getCircuitBreaker();
+		this.spoolFile = spoolFile;
+		this.deadLetterFile = new File(spoolFile.getPath().replaceAll("\\.jsonl$", "") + "-dead.jsonl");
+		this.batchSize = batchSize;
+		this.flushMillis = flushMillis;
+		this.spoolLock = lockSpool(spoolFile);
+		if (spoolLock == null) {
+			Reporter.log("***** TestRail: spool " + spoolFile.getPath() + " is locked by another process", true);
+		}
+		replay(leftoverSpools);
+
+		publisherThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				publishLoop();
+			}
+		}, "testrail-publisher");
+		publisherThread.setDaemon(true);
+		publisherThread.start();
+	}
+
+	/**
+	 * Returns the shared publisher, for the TestRail connection info.
+	 * Batch size and flush interval can be overridden with the 'testrail_batch_size'
+	 * and 'testrail_flush_millis' system properties.
+	 * Spools left by previous runs are replayed if the 'testrail_replay_spool' system property is true.
+	 * @return TestRailPublisher		the publisher
+	 */
+	public static synchronized TestRailPublisher getInstance() {
+		if (instance == null) {
+			TestRailAPIClient client = new TestRailAPIClient(TestRail.testRailURL);
+			client.setUser(TestRail.testRailUser);
+			client.setPassword(TestRail.testRailPassword);
+			File spoolFile = getDefaultSpoolFile();
+			List<File> leftoverSpools = findLeftoverSpools(spoolFile);
+			if (!leftoverSpools.isEmpty() && !Boolean.getBoolean("testrail_replay_spool")) {
+				Reporter.log("***** TestRail: " + leftoverSpools.size() + " spool(s) of unsent results left in " + spoolFile.getParent()
+						+ ", run with -Dtestrail_replay_spool=true to send them", true);
+				leftoverSpools.clear();
+			}
+			instance = new TestRailPublisher(client, spoolFile,
+					Integer.getInteger("testrail_batch_size", defaultBatchSize),
+					Long.getLong("testrail_flush_millis", defaultFlushMillis), leftoverSpools);
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					instance.shutdown(defaultShutdownMillis);
+				}
+			}, "testrail-publisher-shutdown"));
+		}
+		return instance;
+	}
+
+	/**
+	 * Flushes the shared publisher, if results were published, or spools left by previous runs
+	 * are to be replayed ('testrail_replay_spool' system property).
+	 * Called at the end of the suite.
+	 */
+	public static void flushShared() {
+		TestRailPublisher publisher;
+		synchronized (TestRailPublisher.class) {
+			publisher = instance;
+		}
+		if (publisher == null && Boolean.getBoolean("testrail_replay_spool") && !findLeftoverSpools(getDefaultSpoolFile()).isEmpty()) {
+			publisher = getInstance();
+		}
+		if (publisher != null) {
+			publisher.flush(defaultShutdownMillis);
+		}
+	}
+
+	private static File getDefaultSpoolFile() {
+		return new File(System.getProperty("user.dir") + "/target/" + spoolPrefix + "-" + processID + ".jsonl");
+	}
+
+	/**
+	 * Finds the spools left by other runs, next to the given spool
+	 * (dead letter files, and spools being replayed, are not included).
+	 * @param spoolFile		this process's spool
+	 * @return List		the leftover spools
+	 */
+	public static List<File> findLeftoverSpools(File spoolFile) {
+		List<File> leftoverSpools = new ArrayList<File>();
+		File[] files = spoolFile.getAbsoluteFile().getParentFile().listFiles();
+		if (files == null) {
+			return leftoverSpools;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(spoolPrefix) && name.endsWith(".jsonl") && !name.endsWith("-dead.jsonl")
+					&& !name.equals(spoolFile.getName())) {
+				leftoverSpools.add(file);
+			}
+		}
+		return leftoverSpools;
+	}
+
+	/**
+	 * Returns the cache of run IDs and run case IDs used for sending results
+	 * @return TestRailRunCache		the cache
+	 */
+	public TestRailRunCache getRunCache() {
+		return runCache;
+	}
+
+	/**
+	 * Queues a result for the given test cases
+	 * @param ID		the ID (plan or run)
+	 * @param planOrRun		'plan' or 'run' for recording results
+	 * @param runSearch		the String to search for in Run Title
+	 * @param testCases		the list of test case IDs
+	 * @param status		the status to set
+	 * @param comment		comment to set
+	 * @param browser		browser in use (or empty)
+	 */
+	@SuppressWarnings("unchecked")
+	public void publish(String ID, String planOrRun, String runSearch, Long[] testCases, Integer status, String comment, String browser) {
+		JSONObject result = new JSONObject();
+		result.put("id", ID);
+		result.put("planOrRun", planOrRun);
+		result.put("runSearch", runSearch);
+		JSONArray cases = new JSONArray();
+		for (Long testCase : testCases) {
+			cases.add(testCase);
+		}
+		result.put("cases", cases);
+		result.put("status", status);
+		result.put("comment", comment);
+		result.put("browser", browser);
+		enqueue(result, true);
+	}
+
+	/**
+	 * Sends everything queued so far, and waits for it
+	 * @param timeoutMillis		max milliseconds to wait
+	 * @return boolean		true if everything was attempted in time (failures stay in the spool)
+	 */
+	public boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		queue.offer(flushMarker);
+		synchronized (doneLock) {
+			while (outstanding > 0) {
+				long waitMillis = deadline - System.currentTimeMillis();
+				if (waitMillis <= 0 || !publisherThread.isAlive()) {
+					Reporter.log("***** TestRail: " + outstanding + " result(s) not sent, kept in " + spoolFile.getPath(), true);
+					return false;
+				}
+				try {
+					doneLock.wait(waitMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Flushes, stops the publisher thread, and unlocks the spool
+	 * @param timeoutMillis		max milliseconds to wait for the flush
+	 */
+	public void shutdown(long timeoutMillis) {
+		flush(timeoutMillis);
+		running = false;
+		publisherThread.interrupt();
+		try {
+			publisherThread.join(timeoutMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (spoolLock != null) {
+			close(spoolLock);
+			if (!spoolFile.exists()) {
+				getLockFile(spoolFile).delete();
+			}
+		}
+	}
+
+	/*
+	 * Only touches memory: the publisher thread appends the result to the spool.
+	 */
+	@SuppressWarnings("unchecked")
+	private void enqueue(JSONObject result, boolean writeToSpool) {
+		long seq = sequence.incrementAndGet();
+		result.put("seq", seq);
+		synchronized (unsent) {
+			unsent.put(seq, result);
+			if (writeToSpool) {
+				toSpool.add(result);
+			}
+		}
+		synchronized (doneLock) {
+			outstanding++;
+		}
+		queue.offer(result);
+	}
+
+	/*
+	 * Runs on the publisher thread. Collects a batch, and sends it.
+	 */
+	private void publishLoop() {
+		List<JSONObject> batch = new ArrayList<JSONObject>();
+		List<JSONObject> deferred = new ArrayList<JSONObject>(); // Failed, or held while TestRail is down
+		long deferredRetryAt = 0;
+		while (running) {
+			try {
+				JSONObject first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+				spoolPending();
+				long deadline = System.currentTimeMillis() + flushMillis;
+				if (!deferred.isEmpty() && System.currentTimeMillis() >= deferredRetryAt && !circuitBreaker.isOpen()) {
+					batch.addAll(deferred);
+					synchronized (doneLock) {
+						outstanding += deferred.size();
+					}
+					deferred.clear();
+				}
+				if (first != null && first != flushMarker) {
+					batch.add(first);
+					while (batch.size() < batchSize) {
+						long waitMillis = deadline - System.currentTimeMillis();
+						JSONObject next = (waitMillis > 0) ? queue.poll(waitMillis, TimeUnit.MILLISECONDS) : queue.poll();
+						spoolPending();
+						if (next == null || next == flushMarker) {
+							break;
+						}
+						batch.add(next);
+					}
+				}
+			} catch (InterruptedException e) {
+				if (!running) {
+					break;
+				}
+			}
+			if (!batch.isEmpty()) {
+				List<JSONObject> failed = send(batch);
+				if (!failed.isEmpty()) {
+					deferred.addAll(failed);
+					deferredRetryAt = System.currentTimeMillis() + flushMillis;
+				}
+				synchronized (doneLock) {
+					outstanding -= batch.size();
+					doneLock.notifyAll();
+				}
+				batch.clear();
+			}
+		}
+		spoolPending();
+		closeSpoolWriter();
+	}
+
+	/**
+	 * Returns the file results that can never be sent are moved to
+	 * @return File		the dead letter file
+	 */
+	public File getDeadLetterFile() {
+		return deadLetterFile;
+	}
+
+	/*
+	 * Sends a batch, one add_results_for_cases request per run.
+	 * Sent results (and results for cases not in the run) are removed from the spool.
+	 * Results that can never be sent are moved to the dead letter file.
+	 * Returns the results that were not sent (they stay in the spool).
+	 */
+	@SuppressWarnings("unchecked")
+	private List<JSONObject> send(List<JSONObject> batch) {
+		if (circuitBreaker.isOpen()) {
+			Reporter.log("***** TestRail: not reachable, " + batch.size() + " result(s) kept in spool", true);
+			return new ArrayList<JSONObject>(batch);
+		}
+
+		// Group the batch by the plan/run it is recorded in
+		Map<String, List<JSONObject>> byTarget = new LinkedHashMap<String, List<JSONObject>>();
+		for (JSONObject result : batch) {
+			String target = result.get("planOrRun") + ":" + result.get("id") + ":" + result.get("runSearch");
+			List<JSONObject> targetResults = byTarget.get(target);
+			if (targetResults == null) {
+				targetResults = new ArrayList<JSONObject>();
+				byTarget.put(target, targetResults);
+			}
+			targetResults.add(result);
+		}
+
+		List<Long> done = new ArrayList<Long>();
+		List<JSONObject> dead = new ArrayList<JSONObject>();
+		Map<Long, List<JSONObject>> caseResultsByRun = new HashMap<Long, List<JSONObject>>();
+		Map<Long, List<JSONObject>> resultsByRun = new HashMap<Long, List<JSONObject>>();
+		for (List<JSONObject> targetResults : byTarget.values()) {
+			JSONObject first = targetResults.get(0);
+			String ID = (String) first.get("id");
+			String planOrRun = (String) first.get("planOrRun");
+			String runSearch = (String) first.get("runSearch");
+			try {
+				Long runID = runCache.getRunID(ID, planOrRun, runSearch);
+				if (runID == 0) {
+					deadLetter(targetResults, "No run matching '" + runSearch + "' in " + planOrRun + " " + ID, dead);
+					continue;
+				}
+				Set<Long> runCaseIDs = runCache.getCaseIDs(runID);
+				List<JSONObject> caseResults = new ArrayList<JSONObject>();
+				for (JSONObject result : targetResults) {
+					for (Object testCase : (List<Object>) result.get("cases")) {
+						Long thisTest = ((Number) testCase).longValue();
+						if (runCaseIDs.contains(thisTest)) { // Only record if Test is Found.
+							TestEventLog.getInstance().log(TestEventLog.Type.TESTRAIL_POST, null, "state", "add", "target", planOrRun + ":" + ID,
+									"case", thisTest, "runSearch", runSearch, "status", result.get("status"), "comment", result.get("comment"));
+							JSONObject caseResult = new JSONObject();
+							caseResult.put("case_id", thisTest);
+							caseResult.put("status_id", result.get("status"));
+							caseResult.put("comment", result.get("comment"));
+							String browser = (String) result.get("browser");
+							if (browser != null && !browser.isEmpty()) {
+								caseResult.put("custom_browser", browser);
+							}
+							caseResults.add(caseResult);
+						} else {
+							Reporter.log("***** TestRail ERROR: Test Case ID " + thisTest + " NOT found in Run ID " + runID, true);
+						}
+					}
+				}
+				if (!caseResultsByRun.containsKey(runID)) {
+					caseResultsByRun.put(runID, new ArrayList<JSONObject>());
+					resultsByRun.put(runID, new ArrayList<JSONObject>());
+				}
+				caseResultsByRun.get(runID).addAll(caseResults);
+				resultsByRun.get(runID).addAll(targetResults);
+			} catch (Exception e) {
+				if (TestRailRetryPolicy.isPermanent(e)) {
+					deadLetter(targetResults, e.getMessage(), dead);
+				} else {
+					Reporter.log("***** TestRail API ERROR: " + e.getMessage() + " (kept in spool)", true);
+				}
+			}
+		}
+
+		for (Map.Entry<Long, List<JSONObject>> run : caseResultsByRun.entrySet()) {
+			List<JSONObject> runResults = resultsByRun.get(run.getKey());
+			try {
+				if (!run.getValue().isEmpty()) {
+					testRail.addResultsForCases(run.getKey(), run.getValue());
+				}
+				for (JSONObject result : runResults) {
+					done.add((Long) result.get("seq"));
+				}
+			} catch (Exception e) {
+				if (TestRailRetryPolicy.isPermanent(e)) {
+					deadLetter(runResults, e.getMessage(), dead);
+				} else {
+					Reporter.log("***** TestRail API ERROR: " + e.getMessage() + " (kept in spool)", true);
+				}
+			}
+		}
+
+		if (!done.isEmpty() || !dead.isEmpty()) {
+			synchronized (unsent) {
+				for (Long seq : done) {
+					unsent.remove(seq);
+				}
+				for (JSONObject result : dead) {
+					unsent.remove(result.get("seq"));
+				}
+			}
+			rewriteSpool();
+		}
+		if (!dead.isEmpty()) {
+			writeResults(deadLetterFile, dead, true);
+		}
+
+		List<JSONObject> failed = new ArrayList<JSONObject>();
+		for (JSONObject result : batch) {
+			if (!done.contains(result.get("seq")) && !dead.contains(result)) {
+				failed.add(result);
+			}
+		}
+		return failed;
+	}
+
+	/*
+	 * Marks results that can never be sent, with the reason
+	 */
+	@SuppressWarnings("unchecked")
+	private void deadLetter(List<JSONObject> results, String reason, List<JSONObject> dead) {
+		Reporter.log("***** TestRail ERROR: " + reason + " - " + results.size() + " result(s) moved to " + deadLetterFile.getPath(), true);
+		for (JSONObject result : results) {
+			result.put("error", reason);
+			dead.add(result);
+		}
+	}
+
+	/*
+	 * Queues the results left in the spools of previous runs. Called before the publisher thread starts.
+	 * Each spool is claimed (locked, then renamed) so two processes never replay the same spool,
+	 * and a spool whose process is still running is skipped.
+	 */
+	private void replay(List<File> leftoverSpools) {
+		List<File> claimedSpools = new ArrayList<File>();
+		for (File leftover : leftoverSpools) {
+			FileChannel leftoverLock = lockSpool(leftover);
+			if (leftoverLock == null) {
+				Reporter.log("***** TestRail: spool " + leftover.getPath() + " is in use by another process, not replayed", true);
+				continue;
+			}
+			try {
+				File claimed = new File(leftover.getPath() + "." + processID + ".replaying");
+				if (leftover.renameTo(claimed)) {
+					List<JSONObject> results = readResults(claimed);
+					Reporter.log("***** TestRail: replaying " + results.size() + " unsent result(s) from " + leftover.getPath(), true);
+					for (JSONObject result : results) {
+						enqueue(result, false);
+					}
+					claimedSpools.add(claimed);
+				}
+			} finally {
+				close(leftoverLock);
+				getLockFile(leftover).delete();
+			}
+		}
+		if (!claimedSpools.isEmpty()) {
+			rewriteSpool(); // In this process's spool before the claimed spools are deleted
+			for (File claimed : claimedSpools) {
+				claimed.delete();
+			}
+		}
+	}
+
+	private List<JSONObject> readResults(File file) {
+		List<JSONObject> results = new ArrayList<JSONObject>();
+		JSONParser parser = new JSONParser();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.trim().isEmpty()) {
+					try {
+						results.add((JSONObject) parser.parse(line));
+					} catch (Exception e) {
+						// nothing - partial last line from a killed process
+					}
+				}
+			}
+		} catch (IOException e) {
+			Reporter.log("***** TestRail: could not read spool " + file.getPath() + ": " + e.getMessage(), true);
+		}
+		return results;
+	}
+
+	/*
+	 * Publisher thread only. Appends the newly queued results to the spool, with a writer kept open.
+	 */
+	private void spoolPending() {
+		JSONObject result = toSpool.poll();
+		if (result == null) {
+			return;
+		}
+		try {
+			if (spoolWriter == null) {
+				spoolFile.getAbsoluteFile().getParentFile().mkdirs();
+				spoolWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spoolFile, true), StandardCharsets.UTF_8));
+			}
+			while (result != null) {
+				spoolWriter.write(result.toJSONString());
+				spoolWriter.write("\n");
+				result = toSpool.poll();
+			}
+			spoolWriter.flush();
+		} catch (IOException e) {
+			Reporter.log("***** TestRail: could not write " + spoolFile.getPath() + ": " + e.getMessage(), true);
+			closeSpoolWriter();
+		}
+	}
+
+	/*
+	 * Publisher thread only (or before it starts). Replaces the spool with the unsent results,
+	 * through a temp file, or deletes it once everything is sent.
+	 */
+	private void rewriteSpool() {
+		List<JSONObject> results;
+		synchronized (unsent) {
+			toSpool.clear(); // All in unsent
+			results = new ArrayList<JSONObject>(unsent.values());
+		}
+		closeSpoolWriter();
+		if (results.isEmpty()) {
+			spoolFile.delete();
+			return;
+		}
+		File tempFile = new File(spoolFile.getPath() + "." + System.nanoTime() + ".tmp");
+		try {
+			if (writeResults(tempFile, results, false)) {
+				try {
+					Files.move(tempFile.toPath(), spoolFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempFile.toPath(), spoolFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		} catch (IOException e) {
+			Reporter.log("***** TestRail: could not write " + spoolFile.getPath() + ": " + e.getMessage(), true);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private void closeSpoolWriter() {
+		if (spoolWriter != null) {
+			try {
+				spoolWriter.close();
+			} catch (IOException e) {
+				// nothing
+			}
+			spoolWriter = null;
+		}
+	}
+
+	private boolean writeResults(File file, List<JSONObject> results, boolean append) {
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), StandardCharsets.UTF_8))) {
+			for (JSONObject result : results) {
+				writer.write(result.toJSONString());
+				writer.write("\n");
+			}
+			return true;
+		} catch (IOException e) {
+			Reporter.log("***** TestRail: could not write " + file.getPath() + ": " + e.getMessage(), true);
+			return false;
+		}
+	}
+
+	private static File getLockFile(File spool) {
+		return new File(spool.getPath() + ".lock");
+	}
+
+	/*
+	 * Locks the spool's lock file. The lock is held until closed, or the process exits.
+	 * Returns null if another process holds it.
+	 */
+	private static FileChannel lockSpool(File spool) {
+		File lockFile = getLockFile(spool);
+		lockFile.getAbsoluteFile().getParentFile().mkdirs();
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			if (channel.tryLock() != null) {
+				return channel;
+			}
+		} catch (IOException | OverlappingFileLockException e) {
+			// nothing - locked
+		}
+		close(channel);
+		return null;
+	}
+
+	private static void close(FileChannel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing
+			}
+		}
+	}
+}
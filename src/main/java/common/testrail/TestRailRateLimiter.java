@@ -0,0 +1,85 @@
+package common.testrail;
+
+/**
+ * This class limits the rate of TestRail API requests, for all threads of the JVM.
+ * - A token bucket: requests take a token, tokens come back at the configured rate,
+ *   and up to a burst of tokens can be saved while idle.
+ * - When TestRail throttles us anyway (HTTP 429), pause() holds every request
+ *   until the Retry-After has passed.
+ *
+ * The rate defaults to TestRail Cloud's limit, and can be overridden with the
+ * 'testrail_requests_per_minute' system property.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailRateLimiter {
+
+	public static final int defaultRequestsPerMinute = 180;
+	public static final int defaultBurst = 10;
+
+	private static final TestRailRateLimiter instance = new TestRailRateLimiter(
+			Integer.getInteger("testrail_requests_per_minute", defaultRequestsPerMinute), defaultBurst);
+
+	private final long nanosPerToken;
+	private final double burst;
+	private double tokens;
+	private long lastRefillNanos;
+	private long pausedUntilNanos;
+
+	/**
+	 * @param requestsPerMinute		the sustained rate
+	 * @param burst		max requests sent back to back
+	 */
+	public TestRailRateLimiter(int requestsPerMinute, int burst) {
+		this.nanosPerToken = 60000000000L / Math.max(1, requestsPerMinute);
+		this.burst = Math.max(1, burst);
+		this.tokens = this.burst;
+		this.lastRefillNanos = System.nanoTime();
+		this.pausedUntilNanos = lastRefillNanos;
+	}
+
+	public static TestRailRateLimiter getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Waits for a token
+	 * @throws InterruptedException		if interrupted while waiting
+	 */
+	public void acquire() throws InterruptedException {
+		while (true) {
+			long waitNanos;
+			synchronized (this) {
+				long now = System.nanoTime();
+				refill(now);
+				if (now - pausedUntilNanos >= 0 && tokens >= 1) {
+					tokens -= 1;
+					return;
+				}
+				waitNanos = Math.max(pausedUntilNanos - now, (long) ((1 - tokens) * nanosPerToken));
+			}
+			Thread.sleep(Math.max(1, waitNanos / 1000000L));
+		}
+	}
+
+	/**
+	 * Holds all requests for a while (TestRail returned HTTP 429)
+	 * @param millis		milliseconds
+	 */
+	public synchronized void pause(long millis) {
+		long until = System.nanoTime() + (millis * 1000000L);
+		if (until - pausedUntilNanos > 0) {
+			pausedUntilNanos = until;
+		}
+		tokens = 0;
+	}
+
+	private void refill(long now) {
+		long elapsed = now - lastRefillNanos;
+		if (elapsed > 0) {
+			tokens = Math.min(burst, tokens + ((double) elapsed / nanosPerToken));
+			lastRefillNanos = now;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package common.testrail;
+
+/**
+ * This class holds a TestRail API response.
+ * - The HTTP status
+ * - The parsed JSON body (a JSONObject or JSONArray), or null if the body was not JSON
+ * - The Retry-After header, if any
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailResponse {
+
+	private final int status;
+	private final Object body;
+	private final String retryAfter;
+
+	public TestRailResponse(int status, Object body, String retryAfter) {
+		this.status = status;
+		this.body = body;
+		this.retryAfter = retryAfter;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public Object getBody() {
+		return body;
+	}
+
+	public String getRetryAfter() {
+		return retryAfter;
+	}
+}
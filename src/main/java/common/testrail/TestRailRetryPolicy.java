@@ -0,0 +1,124 @@
+package common.testrail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class decides if and when a failed TestRail API request is retried.
+ * - GET requests are retried when throttled (HTTP 429), on server errors (HTTP 5xx)
+ *   and on connection errors (timeouts included).
+ * - POST requests are only retried when TestRail surely did not process them, so a
+ *   result is never recorded twice: the connection was refused (ConnectException),
+ *   or TestRail answered HTTP 429/503 with a Retry-After.
+ * - The wait is TestRail's Retry-After when given, otherwise an exponential backoff
+ *   with full jitter, so parallel clients don't retry in step.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailRetryPolicy {
+
+	public static final int defaultMaxAttempts = 4;
+	public static final long defaultBaseDelayMillis = 1000;
+	public static final long defaultMaxDelayMillis = 30000;
+	public static final long maxRetryAfterMillis = 120000;
+
+	private final int maxAttempts;
+	private final long baseDelayMillis;
+	private final long maxDelayMillis;
+
+	public TestRailRetryPolicy() {
+		this(Integer.getInteger("testrail_max_attempts", defaultMaxAttempts), defaultBaseDelayMillis, defaultMaxDelayMillis);
+	}
+
+	/**
+	 * @param maxAttempts		max attempts per request (1 for no retries)
+	 * @param baseDelayMillis		backoff before the first retry
+	 * @param maxDelayMillis		upper limit for the backoff
+	 */
+	public TestRailRetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+		this.maxAttempts = maxAttempts;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	/**
+	 * Returns true if the request should be sent again
+	 * @param method		'GET' or 'POST'
+	 * @param attempt		the attempt that failed (1 based)
+	 * @param e		the failure
+	 * @return boolean		true to retry
+	 */
+	public boolean shouldRetry(String method, int attempt, Exception e) {
+		if (attempt >= maxAttempts) {
+			return false;
+		}
+		if (method.equals("GET")) {
+			if (e instanceof TestRailAPIException) {
+				int status = ((TestRailAPIException) e).getStatus();
+				return status == 429 || status >= 500;
+			}
+			return e instanceof IOException;
+		}
+		if (e instanceof TestRailAPIException) {
+			TestRailAPIException apiException = (TestRailAPIException) e;
+			int status = apiException.getStatus();
+			return (status == 429 || status == 503) && parseRetryAfter(apiException.getRetryAfter()) >= 0;
+		}
+		return e instanceof ConnectException; // Never reached TestRail
+	}
+
+	/**
+	 * Returns how long to wait before the next attempt
+	 * @param attempt		the attempt that failed (1 based)
+	 * @param e		the failure
+	 * @return long		milliseconds
+	 */
+	public long getDelayMillis(int attempt, Exception e) {
+		if (e instanceof TestRailAPIException) {
+			long retryAfterMillis = parseRetryAfter(((TestRailAPIException) e).getRetryAfter());
+			if (retryAfterMillis >= 0) {
+				return Math.min(retryAfterMillis, maxRetryAfterMillis);
+			}
+		}
+		long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * Returns true if the failure means TestRail is throttling us
+	 * @param e		the failure
+	 * @return boolean		true for HTTP 429
+	 */
+	public static boolean isThrottled(Exception e) {
+		return e instanceof TestRailAPIException && ((TestRailAPIException) e).getStatus() == 429;
+	}
+
+	/**
+	 * Returns true if the failure will happen again however often the request is sent
+	 * @param e		the failure
+	 * @return boolean		true for HTTP 400, 403 and 404
+	 */
+	public static boolean isPermanent(Exception e) {
+		if (!(e instanceof TestRailAPIException)) {
+			return false;
+		}
+		int status = ((TestRailAPIException) e).getStatus();
+		return status == 400 || status == 403 || status == 404;
+	}
+
+	/*
+	 * Retry-After in seconds (TestRail does not send HTTP dates). -1 if missing.
+	 */
+	static long parseRetryAfter(String retryAfter) {
+		if (retryAfter == null) {
+			return -1;
+		}
+		try {
+			return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package common.testrail;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class caches what TestRail results need to know about a run:
+ * - The Run ID for a plan (or run) ID and run search string, resolved once.
+ * - The test case IDs in each run, fetched once with get_tests.
+ * Membership checks are then done in memory.
+ *
+ * The cache is not refreshed on its own. Call refresh() or refreshRun() if
+ * cases or runs are added to TestRail while tests are running.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailRunCache {
+
+	private final TestRail testRail;
+	private final ConcurrentHashMap<String, Long> runIDs = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentHashMap<Long, Set<Long>> runCaseIDs = new ConcurrentHashMap<Long, Set<Long>>();
+
+	TestRailRunCache(TestRail testRail) {
+		this.testRail = testRail;
+	}
+
+	/**
+	 * Returns the Run ID
+	 * @param ID		the ID (plan or run)
+	 * @param planOrRun		'plan' or 'run'
+	 * @param runSearch		the String to search for in Run Title (for plans)
+	 * @return Long		the Run ID (0 if no run in the plan matches)
+	 * @throws Exception		throws Exception
+	 */
+	public Long getRunID(String ID, String planOrRun, String runSearch) throws Exception {
+		String key = planOrRun.toLowerCase() + ":" + ID + ":" + runSearch.toLowerCase();
+		Long runID = runIDs.get(key);
+		if (runID == null) {
+			runID = testRail.resolveRunID(ID, planOrRun, runSearch);
+			if (runID == 0) { // Not cached, the run may be added to the plan later
+				return runID;
+			}
+			Long existing = runIDs.putIfAbsent(key, runID);
+			if (existing != null) {
+				runID = existing;
+			}
+		}
+		return runID;
+	}
+
+	/**
+	 * Returns the test case IDs in a run
+	 * @param runID		the Run ID
+	 * @return Set		the case IDs (read only)
+	 * @throws Exception		throws Exception
+	 */
+	public Set<Long> getCaseIDs(Long runID) throws Exception {
+		Set<Long> caseIDs = runCaseIDs.get(runID);
+		if (caseIDs == null) {
+			caseIDs = Collections.unmodifiableSet(testRail.getRunCaseIDs(runID));
+			Set<Long> existing = runCaseIDs.putIfAbsent(runID, caseIDs);
+			if (existing != null) {
+				caseIDs = existing;
+			}
+		}
+		return caseIDs;
+	}
+
+	/**
+	 * Returns true/false if the test case is in the run
+	 * @param runID		the Run ID
+	 * @param caseID		the test case ID
+	 * @return boolean		true if found
+	 * @throws Exception		throws Exception
+	 */
+	public boolean containsCase(Long runID, Long caseID) throws Exception {
+		return getCaseIDs(runID).contains(caseID);
+	}
+
+	/**
+	 * Drops the cached case IDs of a run, so they are fetched again on next use
+	 * @param runID		the Run ID
+	 */
+	public void refreshRun(Long runID) {
+		runCaseIDs.remove(runID);
+	}
+
+	/**
+	 * Drops everything, so plans and runs are resolved again on next use
+	 */
+	public void refresh() {
+		runIDs.clear();
+		runCaseIDs.clear();
+	}
+}
@@ -0,0 +1,27 @@
+package common.testrail;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * This interface sends the HTTP requests of the TestRailAPIClient.
+ * The default is TestRailHttpTransport. Another transport (e.g. a stub)
+ * can be set with TestRailAPIClient.setTransport().
+ *
+ * @author mlabbe
+ *
+ */
+public interface TestRailTransport {
+
+	/**
+	 * Sends a request, and reads the JSON response
+	 * @param method		'GET' or 'POST'
+	 * @param url		the full URL
+	 * @param authorization		the Authorization header value
+	 * @param body		the JSON body (UTF-8), or null
+	 * @return TestRailResponse		the status and parsed body
+	 * @throws IOException		on connection errors
+	 * @throws TestRailAPIException		if the response is not valid JSON
+	 */
+	TestRailResponse send(String method, URL url, String authorization, byte[] body) throws IOException, TestRailAPIException;
+}
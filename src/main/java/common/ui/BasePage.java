@@ -17,7 +17,10 @@ import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 import org.testng.Reporter;
 
+import common.utils.DownloadWatcher;
 import common.utils.ExcelDataUtil;
+import common.utils.LocaleStringTable;
+import common.utils.Poller;
 import common.utils.ReflectionUtils;
 import common.utils.ValidationUtils;
 
@@ -48,6 +51,7 @@ public class BasePage extends ValidationUtils {
 	public String window2;
 
 	// This is where we will store downloaded files, such as downloaded reports and PDFs
+	// Local browser sessions download to their own sub folder - see getDownloadFolder()
 	public static final String myTempDownloadsFolder = ""; // "C:\\temp_downloads_"+testProperties.getString(TEST_ENV);
 
 	// This is where we will store files to be uploaded for various tests.
@@ -64,6 +68,7 @@ public class BasePage extends ValidationUtils {
 	
 	/**
 	 * Fetches localized strings from the Locales.xlsx sheet, based on the given list of keys for the given app
+	 * The sheet is read once per run and shared by all pages (see LocaleStringTable).
 	 * Used from within a page object constructor BEFORE the initElements.
 	 * @param keys		list of keys to fetch strings for
 	 * @param app		the application we are looking for
@@ -72,14 +77,22 @@ public class BasePage extends ValidationUtils {
 	 */
 	protected HashMap<String, String> getLocaleStrings(String[] keys, String app) throws Exception {
 		HashMap<String, String> returnSet = new HashMap<String, String>();
-		ExcelDataUtil excelDataUtil = new ExcelDataUtil();
+		LocaleStringTable.Sheet localeStrings = new ExcelDataUtil().getLocaleSheet(localeExcelFile, app);
 
 		for (String key : keys) {
-			returnSet.put(key, excelDataUtil.getLocaleKeyValue(localeExcelFile, app, key, localizationValue.get()));
+			returnSet.put(key, localeStrings.get(key, localizationValue.get()));
 		}
 		return returnSet;
 	}
 	
+	/**
+	 * Returns the download folder of the browser session used by this test thread
+	 * @return String		the folder path
+	 */
+	public String getDownloadFolder() {
+		return DownloadWatcher.getCurrentFolder();
+	}
+
 	// ------ Alert Dialogs -------
 	/**
 	 * Clicks on Alert Cancel button if an alert appears
@@ -201,15 +214,20 @@ public class BasePage extends ValidationUtils {
 		(new WebDriverWait(getDriver(), maxWaitInSeconds)).until(ExpectedConditions.refreshed(ExpectedConditions.visibilityOf(element)));
 	}
 	
-	public void myAssertElementPresent(By by, int maxWaitInSeconds) throws Exception {
-		boolean foundIt = false;
-		Long start = System.nanoTime();
-		while ((((double) System.nanoTime() - start) / 1000000000.0) < maxWaitInSeconds) {
-			if (getDriver().findElements(by).size() > 0) {
-				foundIt = true;
-				break; // Found it
+	/**
+	 * Checks if an element is present within the specified timeout, using the shared Poller
+	 * Throws exception if times out.
+	 * @param by		The element identifier
+	 * @param maxWaitInSeconds		The number of seconds as timeout value
+	 * @throws Exception		throws Exception
+	 */
+	public void myAssertElementPresent(final By by, int maxWaitInSeconds) throws Exception {
+		boolean foundIt = waitUntil("element '" + by.toString() + "'", new Poller.Condition() {
+			@Override
+			public boolean check() {
+				return getDriver().findElements(by).size() > 0;
 			}
-		}
+		}, maxWaitInSeconds);
 		if (!foundIt) {
 			throw new NoSuchElementException("Element '"+by.toString()+"' NOT FOUND.");
 		}
@@ -490,6 +508,30 @@ public class BasePage extends ValidationUtils {
 	protected TableFixture getTableObject(WebElement element) throws Exception {
 		return new TableFixture(element, getElementName(element));
 	}
+
+	/**
+	 * Returns a TableFixture in snapshot mode: the whole table text is read
+	 * with one script call, and searches run locally against it.
+	 * Better suited to large tables, and remote grids.
+	 * @param element		the table element
+	 * @return TableFixture		the table fixture
+	 * @throws Exception		throws Exception
+	 */
+	protected TableFixture getTableSnapshotObject(WebElement element) throws Exception {
+		return new TableFixture(element, getElementName(element), (JavascriptExecutor) getDriver());
+	}
+
+	/**
+	 * Returns a LazyTableFixture: rows are read a page at a time, only when needed.
+	 * For very large or virtualized grids (see LazyTableFixture.withVirtualScroll).
+	 * @param element		the table/grid element
+	 * @param pageSize		number of rows to read per script call
+	 * @return LazyTableFixture		the table fixture
+	 */
+	protected LazyTableFixture getLazyTableObject(WebElement element, int pageSize) {
+		return new LazyTableFixture(element, getElementName(element), (JavascriptExecutor) getDriver(), pageSize,
+				LazyTableFixture.defaultCachedPages);
+	}
 	
 	/**
 	 * Determine is a text string is anywhere on the current page.
@@ -509,16 +551,25 @@ public class BasePage extends ValidationUtils {
 	 * @param timeout		max seconds to wait
 	 * @return boolean		true/false
 	 */
-	public boolean isStringOnPage(String string, long timeout) {
-		boolean returnValue = false;
-		long startTime = System.nanoTime();
-		while ((((double) System.nanoTime() - startTime) / 1000000000.0) < timeout) {
-			returnValue = getDriver().getPageSource().indexOf(string) != -1;
-			if (returnValue) { // Stop waiting for timeout to hit
-				break;
+	public boolean isStringOnPage(final String string, long timeout) {
+		return waitUntil("string '" + string + "' on page", new Poller.Condition() {
+			@Override
+			public boolean check() {
+				return isStringOnPage(string);
 			}
-		}
-		return returnValue;
+		}, timeout);
+	}
+
+	/**
+	 * Waits for a condition, using the shared Poller (interval with backoff).
+	 * Use for new wait helpers that WebDriverWait/ExpectedConditions do not cover.
+	 * @param description		what is being waited on, for the log
+	 * @param condition		the condition to poll
+	 * @param maxWaitInSeconds		max seconds to wait
+	 * @return boolean		true if the condition was met
+	 */
+	protected boolean waitUntil(String description, Poller.Condition condition, long maxWaitInSeconds) {
+		return new Poller(maxWaitInSeconds * 1000).describedAs(description).until(condition);
 	}
 	
 	
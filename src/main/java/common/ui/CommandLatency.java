@@ -0,0 +1,315 @@
+package common.ui;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+import org.testng.Reporter;
+
+import common.utils.TestEventLog;
+
+/**
+ * This class measures how long every WebDriver command takes (findElement, clickElement,
+ * getElementText, executeScript, screenshot, ...), so a slow test can be traced to the
+ * page, the waits or the grid.
+ * - instrument() wraps the CommandExecutor of a RemoteWebDriver (all local drivers are one),
+ *   so the driver keeps its type and every command is timed, including the ones Selenium sends itself.
+ * - Latencies are kept per test and per command, in log-linear histograms
+ *   (16 buckets per power of 2, about 6% precision), and as DRIVER_COMMAND events (TestEventLog).
+ * - When a test ends its histograms are reduced to p50/p95/p99 and merged into the suite totals.
+ * - export() writes all of it to target/command-latency.csv at the end of the suite.
+ *
+ * @author mlabbe
+ *
+ */
+public class CommandLatency {
+
+	private static final String noTest = "(no test)";
+	private static final String allTests = "ALL";
+
+	/*
+	 * A log-linear histogram of microseconds: exact below 16, then 16 buckets per power of 2.
+	 */
+	static final class Histogram {
+		private static final int subBits = 4;
+		private static final int subCount = 1 << subBits;
+
+		private long[] counts = new long[subCount * 4];
+		private long total = 0;
+		private long max = 0;
+
+		synchronized void record(long micros) {
+			int index = getIndex(Math.max(0, micros));
+			if (index >= counts.length) {
+				long[] grown = new long[Math.max(index + 1, counts.length * 2)];
+				System.arraycopy(counts, 0, grown, 0, counts.length);
+				counts = grown;
+			}
+			counts[index]++;
+			total++;
+			max = Math.max(max, micros);
+		}
+
+		synchronized void merge(Histogram other) {
+			synchronized (other) {
+				if (other.counts.length > counts.length) {
+					long[] grown = new long[other.counts.length];
+					System.arraycopy(counts, 0, grown, 0, counts.length);
+					counts = grown;
+				}
+				for (int i = 0; i < other.counts.length; i++) {
+					counts[i] += other.counts[i];
+				}
+				total += other.total;
+				max = Math.max(max, other.max);
+			}
+		}
+
+		/*
+		 * The value at a percentile (0-100), as the middle of its bucket, in microseconds
+		 */
+		synchronized long getPercentile(double percentile) {
+			long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(max, getMiddle(i));
+				}
+			}
+			return max;
+		}
+
+		synchronized long getTotal() {
+			return total;
+		}
+
+		synchronized long getMax() {
+			return max;
+		}
+
+		private static int getIndex(long micros) {
+			if (micros < subCount) {
+				return (int) micros;
+			}
+			int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+			return (magnitude - subBits + 1) * subCount + (int) ((micros >>> (magnitude - subBits)) & (subCount - 1));
+		}
+
+		private static long getMiddle(int index) {
+			if (index < subCount) {
+				return index;
+			}
+			int magnitude = index / subCount + subBits - 1;
+			long lower = ((long) (subCount + index % subCount)) << (magnitude - subBits);
+			return lower + ((1L << (magnitude - subBits)) >> 1);
+		}
+	}
+
+	/*
+	 * The latencies of one test: histograms while it runs, then summary rows
+	 */
+	private static final class TestLatencies {
+		private final String name;
+		private final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+		private List<String> rows = null; // Set when the test ends
+
+		private TestLatencies(String name) {
+			this.name = name;
+		}
+
+		private synchronized void record(String command, long micros) {
+			Histogram histogram = histograms.get(command);
+			if (histogram == null) {
+				histogram = new Histogram();
+				histograms.put(command, histogram);
+			}
+			histogram.record(micros);
+		}
+
+		/*
+		 * Reduces the histograms to CSV rows, merging them into the suite totals
+		 */
+		private synchronized List<String> end(Map<String, Histogram> suiteTotals) {
+			if (rows == null) {
+				rows = new ArrayList<String>();
+				for (Map.Entry<String, Histogram> command : histograms.entrySet()) {
+					rows.add(toRow(name, command.getKey(), command.getValue()));
+					synchronized (suiteTotals) {
+						Histogram total = suiteTotals.get(command.getKey());
+						if (total == null) {
+							total = new Histogram();
+							suiteTotals.put(command.getKey(), total);
+						}
+						total.merge(command.getValue());
+					}
+				}
+				histograms.clear();
+			}
+			return rows;
+		}
+	}
+
+	/*
+	 * Times each command before handing it to the driver's own executor
+	 */
+	private final class TimingExecutor implements CommandExecutor {
+		private final CommandExecutor delegate;
+
+		private TimingExecutor(CommandExecutor delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Response execute(Command command) throws IOException {
+			long start = System.nanoTime();
+			try {
+				return delegate.execute(command);
+			} finally {
+				record(command.getName(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+			}
+		}
+	}
+
+	private static final CommandLatency instance = new CommandLatency();
+
+	private final ThreadLocal<TestLatencies> currentTest = new ThreadLocal<TestLatencies>();
+	private volatile TestLatencies outsideTests = new TestLatencies(noTest);
+	private final ConcurrentLinkedQueue<TestLatencies> tests = new ConcurrentLinkedQueue<TestLatencies>();
+	private final Map<String, Histogram> suiteTotals = new TreeMap<String, Histogram>(); // Guarded by itself
+
+	private CommandLatency() {
+	}
+
+	public static CommandLatency getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Times every command of a driver from now on. Drivers other than RemoteWebDriver are left as is.
+	 * @param driver		the driver
+	 */
+	public void instrument(WebDriver driver) {
+		if (!(driver instanceof RemoteWebDriver)) {
+			return;
+		}
+		RemoteWebDriver remoteDriver = (RemoteWebDriver) driver;
+		CommandExecutor executor = remoteDriver.getCommandExecutor();
+		if (executor instanceof TimingExecutor) {
+			return;
+		}
+		try {
+			Method setCommandExecutor = RemoteWebDriver.class.getDeclaredMethod("setCommandExecutor", CommandExecutor.class);
+			setCommandExecutor.setAccessible(true); // protected
+			setCommandExecutor.invoke(remoteDriver, new TimingExecutor(executor));
+		} catch (Exception e) {
+			Reporter.log("-- CommandLatency: driver NOT instrumented: " + e, true);
+		}
+	}
+
+	/**
+	 * Starts recording the commands of the current thread for a test
+	 * @param testName		the test name
+	 */
+	public void startTest(String testName) {
+		endTest();
+		TestLatencies test = new TestLatencies(testName);
+		tests.add(test);
+		currentTest.set(test);
+	}
+
+	/**
+	 * Ends the test of the current thread: its histograms are reduced to percentiles
+	 */
+	public void endTest() {
+		TestLatencies test = currentTest.get();
+		if (test != null) {
+			currentTest.remove();
+			test.end(suiteTotals);
+		}
+	}
+
+	/**
+	 * Records the latency of one command, for the test of the current thread
+	 * @param command		the command name
+	 * @param micros		the latency in microseconds
+	 */
+	public void record(String command, long micros) {
+		TestLatencies test = currentTest.get();
+		(test != null ? test : outsideTests).record(command, micros);
+		TestEventLog.getInstance().log(TestEventLog.Type.DRIVER_COMMAND, null, "command", command, "micros", micros);
+	}
+
+	/**
+	 * Writes the count, p50, p95, p99 and max (in milliseconds) of every command per test,
+	 * then for all tests, as CSV
+	 * @param csvFile		the file to write
+	 * @throws IOException		on write errors
+	 */
+	public void export(File csvFile) throws IOException {
+		csvFile.getParentFile().mkdirs();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile), StandardCharsets.UTF_8))) {
+			out.write("test,command,count,p50_ms,p95_ms,p99_ms,max_ms\n");
+			// Commands sent outside tests so far are reported as one more 'test'
+			TestLatencies outside = outsideTests;
+			outsideTests = new TestLatencies(noTest);
+			tests.add(outside);
+			for (TestLatencies test : tests) {
+				for (String row : test.end(suiteTotals)) {
+					out.write(row);
+				}
+			}
+			synchronized (suiteTotals) {
+				for (Map.Entry<String, Histogram> command : suiteTotals.entrySet()) {
+					out.write(toRow(allTests, command.getKey(), command.getValue()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the latencies to target/command-latency.csv
+	 */
+	public void export() {
+		File csvFile = new File(System.getProperty("user.dir") + "/target/command-latency.csv");
+		try {
+			export(csvFile);
+		} catch (IOException e) {
+			Reporter.log("-- CommandLatency: could not write " + csvFile.getPath() + ": " + e.getMessage(), true);
+		}
+	}
+
+	private static String toRow(String test, String command, Histogram histogram) {
+		return csv(test) + "," + csv(command) + "," + histogram.getTotal() + "," + millis(histogram.getPercentile(50))
+				+ "," + millis(histogram.getPercentile(95)) + "," + millis(histogram.getPercentile(99)) + ","
+				+ millis(histogram.getMax()) + "\n";
+	}
+
+	private static String millis(long micros) {
+		return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+	}
+
+	private static String csv(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
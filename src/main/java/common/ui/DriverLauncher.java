@@ -0,0 +1,141 @@
+package common.ui;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.WebDriver;
+import org.testng.Reporter;
+
+/**
+ * This class launches browser sessions in the background, ahead of demand,
+ * so test threads can take an already started session from the DriverPool.
+ * - Tracks launches in flight per browser configuration key.
+ * - Records launch latency, and how often/long test threads stall waiting for a session.
+ *
+ * @author mlabbe
+ *
+ */
+public class DriverLauncher {
+
+	/**
+	 * Receives a session once its background launch is done.
+	 */
+	public interface LaunchListener {
+		void launched(String key, WebDriver driver);
+	}
+
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "driver-launcher-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Map<String, AtomicInteger> pendingLaunches = new ConcurrentHashMap<String, AtomicInteger>();
+
+	// Metrics
+	private final AtomicLong launchCount = new AtomicLong();
+	private final AtomicLong launchFailures = new AtomicLong();
+	private final AtomicLong launchNanos = new AtomicLong();
+	private final AtomicLong maxLaunchNanos = new AtomicLong();
+	private final AtomicLong stallCount = new AtomicLong();
+	private final AtomicLong stallNanos = new AtomicLong();
+
+	/**
+	 * Starts a launch in the background. The listener gets the session when it is ready.
+	 * @param key		the browser configuration key
+	 * @param factory		launches the session
+	 * @param listener		receives the launched session
+	 */
+	public void launchAsync(final String key, final DriverPool.DriverFactory factory, final LaunchListener listener) {
+		final AtomicInteger pending = getPending(key);
+		pending.incrementAndGet();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					WebDriver driver = launch(factory);
+					listener.launched(key, driver);
+				} catch (Exception e) {
+					Reporter.log("-- DriverLauncher: background launch failed: " + e.getMessage(), true);
+				} finally {
+					pending.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Launches a session on the calling thread, recording the launch latency.
+	 * @param factory		launches the session
+	 * @return WebDriver		the new session
+	 * @throws Exception		throws Exception
+	 */
+	public WebDriver launch(DriverPool.DriverFactory factory) throws Exception {
+		long start = System.nanoTime();
+		try {
+			WebDriver driver = factory.createDriver();
+			recordLaunch(System.nanoTime() - start);
+			return driver;
+		} catch (Exception e) {
+			launchFailures.incrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the number of launches in flight for the given key
+	 * @param key		the browser configuration key
+	 * @return int		launches in flight
+	 */
+	public int getPendingCount(String key) {
+		return getPending(key).get();
+	}
+
+	/**
+	 * Records a test thread waiting on an empty ready queue.
+	 * @param nanos		how long the thread waited
+	 */
+	public void recordStall(long nanos) {
+		stallCount.incrementAndGet();
+		stallNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Logs the launch latency and stall metrics, to help tune the prewarm depth.
+	 */
+	public void logMetrics() {
+		long launches = launchCount.get();
+		long avgMillis = launches == 0 ? 0 : launchNanos.get() / launches / 1000000;
+		Reporter.log("-- DriverLauncher: launches=" + launches + " failed=" + launchFailures.get() + " avgLaunch="
+				+ avgMillis + "ms maxLaunch=" + (maxLaunchNanos.get() / 1000000) + "ms / queueEmptyStalls="
+				+ stallCount.get() + " stallTime=" + (stallNanos.get() / 1000000) + "ms", true);
+	}
+
+	private void recordLaunch(long nanos) {
+		launchCount.incrementAndGet();
+		launchNanos.addAndGet(nanos);
+		long max = maxLaunchNanos.get();
+		while (nanos > max && !maxLaunchNanos.compareAndSet(max, nanos)) {
+			max = maxLaunchNanos.get();
+		}
+	}
+
+	private AtomicInteger getPending(String key) {
+		AtomicInteger pending = pendingLaunches.get(key);
+		if (pending == null) {
+			pendingLaunches.putIfAbsent(key, new AtomicInteger());
+			pending = pendingLaunches.get(key);
+		}
+		return pending;
+	}
+}
@@ -0,0 +1,316 @@
+package common.ui;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.Alert;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.testng.Reporter;
+
+/**
+ * This class keeps warm browser sessions around between test methods.
+ * - Sessions are pooled by browser configuration (run location, browser, version, platform).
+ * - A test thread leases a session, and returns it when the test method is done.
+ * - Returned sessions are reset (cookies, storage, alerts) before being reused.
+ * - A session is quit once it reaches the max number of uses, or fails its health check.
+ *
+ * The max number of uses is read from the 'driver_pool_max_uses' system property.
+ * A value of 1 turns pooling off (a new browser for every test method).
+ *
+ * When a prewarm depth is set (typically the suite's thread count), the DriverLauncher
+ * keeps that many sessions per key started ahead of demand, so a lease only has to
+ * take a session from the ready queue.
+ *
+ * @author mlabbe
+ *
+ */
+public class DriverPool {
+
+	/**
+	 * Launches a new browser session for the pool.
+	 */
+	public interface DriverFactory {
+		WebDriver createDriver() throws Exception;
+	}
+
+	private static final int defaultMaxUses = 10;
+	private static final DriverPool instance = new DriverPool();
+
+	private final int maxUses;
+	private volatile int prewarmDepth = 0;
+	private final DriverLauncher launcher = new DriverLauncher();
+	// Idle sessions, by browser configuration key
+	private final Map<String, LinkedBlockingDeque<PooledDriver>> idleDrivers = new ConcurrentHashMap<String, LinkedBlockingDeque<PooledDriver>>();
+	// Sessions currently leased out to a test thread
+	private final Map<WebDriver, PooledDriver> leasedDrivers = new ConcurrentHashMap<WebDriver, PooledDriver>();
+	// Live sessions (idle + leased), by browser configuration key
+	private final Map<String, AtomicInteger> sessionCounts = new ConcurrentHashMap<String, AtomicInteger>();
+	// Last factory used for each key, so the launcher can replace recycled sessions
+	private final Map<String, DriverFactory> factories = new ConcurrentHashMap<String, DriverFactory>();
+
+	private DriverPool() {
+		maxUses = readIntProperty("driver_pool_max_uses", defaultMaxUses);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				quitAll();
+			}
+		});
+	}
+
+	public static DriverPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets how many sessions per key to keep started ahead of demand.
+	 * The 'driver_prewarm_depth' system property, when set, overrides the given depth.
+	 * @param depth		number of sessions, typically the suite's thread count. 0 turns prewarming off.
+	 */
+	public void setPrewarmDepth(int depth) {
+		prewarmDepth = readIntProperty("driver_prewarm_depth", depth, 0); // 0 turns prewarming off
+	}
+
+	/**
+	 * Builds the pool key for a parsed browser configuration.
+	 * @param runLocation		local, grid, testingbot, smartbear
+	 * @param serverURL		the remote server URL (empty for local)
+	 * @param browser		the browser
+	 * @param browserVersion		the browser version
+	 * @param platformOS		the platform
+	 * @return String		the pool key
+	 */
+	public static String getKey(String runLocation, String serverURL, String browser, String browserVersion, String platformOS) {
+		return runLocation + ";" + serverURL + ";" + browser + ";" + browserVersion + ";" + platformOS;
+	}
+
+	/**
+	 * Leases a session for the given key. Reuses a healthy idle session
+	 * if there is one, otherwise launches a new one with the factory.
+	 * @param key		the browser configuration key
+	 * @param factory		used to launch a new session when none are idle
+	 * @return WebDriver		the leased session
+	 * @throws Exception		throws Exception
+	 */
+	public WebDriver lease(String key, DriverFactory factory) throws Exception {
+		factories.put(key, factory);
+		replenish(key);
+		LinkedBlockingDeque<PooledDriver> idle = getIdleDrivers(key);
+		PooledDriver pooled = takeHealthy(idle);
+		if (pooled == null && launcher.getPendingCount(key) > 0) {
+			// Wait for a background launch rather than starting yet another browser
+			long start = System.nanoTime();
+			while (pooled == null && launcher.getPendingCount(key) > 0) {
+				pooled = idle.pollFirst(1, TimeUnit.SECONDS);
+				if (pooled != null && !isHealthy(pooled.driver)) {
+					quit(pooled);
+					pooled = null;
+				}
+			}
+			launcher.recordStall(System.nanoTime() - start);
+		}
+		if (pooled == null) {
+			pooled = register(key, launcher.launch(factory));
+		}
+		pooled.uses++;
+		leasedDrivers.put(pooled.driver, pooled);
+		return pooled.driver;
+	}
+
+	/**
+	 * Returns a leased session to the pool. The session is reset for the next test,
+	 * or quit if it has reached the max number of uses or could not be reset.
+	 * @param driver		the leased session
+	 */
+	public void release(WebDriver driver) {
+		if (driver == null) {
+			return;
+		}
+		PooledDriver pooled = leasedDrivers.remove(driver);
+		if (pooled == null) {
+			quit(driver);
+			return;
+		}
+		if (pooled.uses >= maxUses || !reset(driver)) {
+			quit(pooled);
+			replenish(pooled.key);
+			return;
+		}
+		getIdleDrivers(pooled.key).offerFirst(pooled);
+	}
+
+	/**
+	 * Quits the given session instead of returning it to the pool.
+	 * @param driver		the leased session
+	 */
+	public void discard(WebDriver driver) {
+		if (driver == null) {
+			return;
+		}
+		PooledDriver pooled = leasedDrivers.remove(driver);
+		if (pooled != null) {
+			quit(pooled);
+		} else {
+			quit(driver);
+		}
+	}
+
+	/**
+	 * Quits all idle sessions. Called at the end of the suite.
+	 */
+	public void quitAll() {
+		prewarmDepth = 0;
+		for (LinkedBlockingDeque<PooledDriver> idle : idleDrivers.values()) {
+			PooledDriver pooled;
+			while ((pooled = idle.pollFirst()) != null) {
+				quit(pooled);
+			}
+		}
+		launcher.logMetrics();
+	}
+
+	/*
+	 * Starts background launches until the key has prewarmDepth sessions (live or launching).
+	 */
+	private synchronized void replenish(String key) {
+		DriverFactory factory = factories.get(key);
+		if (factory == null) {
+			return;
+		}
+		int missing = prewarmDepth - getSessionCount(key).get() - launcher.getPendingCount(key);
+		for (int i = 0; i < missing; i++) {
+			launcher.launchAsync(key, factory, new DriverLauncher.LaunchListener() {
+				@Override
+				public void launched(String key, WebDriver driver) {
+					if (prewarmDepth == 0) { // Suite is over
+						quit(driver);
+						return;
+					}
+					getIdleDrivers(key).offerLast(register(key, driver));
+				}
+			});
+		}
+	}
+
+	private PooledDriver takeHealthy(LinkedBlockingDeque<PooledDriver> idle) {
+		PooledDriver pooled = idle.pollFirst();
+		while (pooled != null && !isHealthy(pooled.driver)) {
+			Reporter.log("-- DriverPool: session failed health check, recycling", true);
+			quit(pooled);
+			pooled = idle.pollFirst();
+		}
+		return pooled;
+	}
+
+	private PooledDriver register(String key, WebDriver driver) {
+		getSessionCount(key).incrementAndGet();
+		return new PooledDriver(key, driver);
+	}
+
+	private AtomicInteger getSessionCount(String key) {
+		AtomicInteger count = sessionCounts.get(key);
+		if (count == null) {
+			sessionCounts.putIfAbsent(key, new AtomicInteger());
+			count = sessionCounts.get(key);
+		}
+		return count;
+	}
+
+	private LinkedBlockingDeque<PooledDriver> getIdleDrivers(String key) {
+		LinkedBlockingDeque<PooledDriver> idle = idleDrivers.get(key);
+		if (idle == null) {
+			idleDrivers.putIfAbsent(key, new LinkedBlockingDeque<PooledDriver>());
+			idle = idleDrivers.get(key);
+		}
+		return idle;
+	}
+
+	/*
+	 * A session is healthy if it still has a session ID and answers a simple command.
+	 */
+	private boolean isHealthy(WebDriver driver) {
+		try {
+			if (driver instanceof RemoteWebDriver && ((RemoteWebDriver) driver).getSessionId() == null) {
+				return false;
+			}
+			driver.getWindowHandle();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/*
+	 * Clears any state left over from the previous test.
+	 * Secondary windows are closed by the test before releasing.
+	 */
+	private boolean reset(WebDriver driver) {
+		try {
+			try {
+				Alert alert = driver.switchTo().alert();
+				alert.dismiss();
+			} catch (Exception e) {
+				// Nothing - No alert
+			}
+			driver.manage().deleteAllCookies();
+			try {
+				((JavascriptExecutor) driver).executeScript("window.localStorage.clear(); window.sessionStorage.clear();");
+			} catch (Exception e) {
+				// Nothing - storage not available for the current page
+			}
+			driver.get("about:blank");
+			return true;
+		} catch (Exception e) {
+			Reporter.log("-- DriverPool: failed to reset session, recycling: " + e.getMessage(), true);
+			return false;
+		}
+	}
+
+	private void quit(PooledDriver pooled) {
+		getSessionCount(pooled.key).decrementAndGet();
+		quit(pooled.driver);
+	}
+
+	private void quit(WebDriver driver) {
+		try {
+			driver.quit();
+		} catch (Exception e) {
+			// do nothing
+		}
+	}
+
+	private static int readIntProperty(String name, int defaultValue) {
+		return readIntProperty(name, defaultValue, 1);
+	}
+
+	/*
+	 * Reads an int system property, using the default if it is not set, not a number, or below the minimum
+	 */
+	private static int readIntProperty(String name, int defaultValue, int minValue) {
+		try {
+			int value = Integer.parseInt(System.getProperty(name, "").trim());
+			return value >= minValue ? value : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/*
+	 * A pooled session and how many times it has been leased.
+	 */
+	private static class PooledDriver {
+		private final String key;
+		private final WebDriver driver;
+		private int uses = 0;
+
+		private PooledDriver(String key, WebDriver driver) {
+			this.key = key;
+			this.driver = driver;
+		}
+	}
+}
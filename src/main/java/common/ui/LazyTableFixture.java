@@ -0,0 +1,386 @@
+package common.ui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebElement;
+
+import common.utils.Poller;
+
+/**
+ * This class is a "Helper class" for interacting with very large tables/grids,
+ * without reading the whole table up front like TableFixture.
+ * - Nothing is read at construction time.
+ * - Row texts are fetched with one script call per page of rows, only when needed.
+ * - Only the most recently used pages are kept, so memory stays flat for any table size.
+ * - Searches stop at the first page holding a match.
+ *
+ * Virtualized/scrolling grids (rows only rendered near the viewport) are supported with
+ * withVirtualScroll(): rows are identified by an index attribute (i.e. aria-rowindex),
+ * and the scroll container is scrolled to render the rows of the requested page.
+ *
+ * Rows are 0 based, columns are 1 based (like TableFixture).
+ *
+ * @author mlabbe
+ *
+ */
+public class LazyTableFixture {
+
+	public static final int defaultPageSize = 50;
+	public static final int defaultCachedPages = 4;
+	private static final long renderTimeoutMillis = 5000; // Max wait for a virtualized page to render
+
+	/*
+	 * arguments: table, rowSelector, cellSelector, start, count, indexAttribute, indexBase
+	 * returns: [rendered row count, [[rowIndex, rowText, [cellTexts]], ...]]
+	 */
+	private static final String fetchScript =
+			"var table = arguments[0], rowSel = arguments[1], cellSel = arguments[2];"
+			+ "var start = arguments[3], end = arguments[3] + arguments[4], attr = arguments[5], base = arguments[6];"
+			+ "function visible(e) { return !!(e.offsetWidth || e.offsetHeight || e.getClientRects().length); }"
+			+ "function text(e) { return visible(e) ? (e.innerText || e.textContent || '').replace(/\\u00a0/g, ' ').trim() : ''; }"
+			+ "var rows = table.querySelectorAll(rowSel), out = [];"
+			+ "for (var r = 0; r < rows.length; r++) {"
+			+ "  var index = attr ? parseInt(rows[r].getAttribute(attr), 10) - base : r;"
+			+ "  if (isNaN(index) || index < start || index >= end) { continue; }"
+			+ "  var cells = [], tds = rows[r].querySelectorAll(cellSel);"
+			+ "  for (var c = 0; c < tds.length; c++) { cells.push(text(tds[c])); }"
+			+ "  out.push([index, text(rows[r]), cells]);"
+			+ "}"
+			+ "return [rows.length, out];";
+
+	/*
+	 * arguments: table, rowSelector, index, indexAttribute, indexBase
+	 */
+	private static final String rowScript =
+			"var rows = arguments[0].querySelectorAll(arguments[1]);"
+			+ "if (!arguments[3]) { return rows[arguments[2]] || null; }"
+			+ "for (var r = 0; r < rows.length; r++) {"
+			+ "  if (parseInt(rows[r].getAttribute(arguments[3]), 10) - arguments[4] == arguments[2]) { return rows[r]; }"
+			+ "}"
+			+ "return null;";
+
+	/*
+	 * arguments: scrollContainer, rowSelector, index, indexAttribute, indexBase
+	 * Scrolls so the given row index is rendered, estimating the position from the first rendered row's height.
+	 */
+	private static final String scrollScript =
+			"var container = arguments[0], rows = container.querySelectorAll(arguments[1]);"
+			+ "if (rows.length == 0) { return; }"
+			+ "var height = rows[0].offsetHeight || 20;"
+			+ "container.scrollTop = arguments[2] * height;";
+
+	/*
+	 * arguments: scrollContainer, rowSelector, indexAttribute, indexBase
+	 * Scrolls to the bottom and returns the highest rendered row index.
+	 */
+	private static final String lastIndexScript =
+			"var container = arguments[0];"
+			+ "container.scrollTop = container.scrollHeight;"
+			+ "var rows = container.querySelectorAll(arguments[1]), max = -1;"
+			+ "for (var r = 0; r < rows.length; r++) {"
+			+ "  var index = parseInt(rows[r].getAttribute(arguments[2]), 10) - arguments[3];"
+			+ "  if (index > max) { max = index; }"
+			+ "}"
+			+ "return max;";
+
+	private final WebElement element;
+	@SuppressWarnings("unused")
+	private String elementName;
+	private final JavascriptExecutor executor;
+	private final int pageSize;
+
+	private String rowSelector = "tr";
+	private String cellSelector = "td";
+	private WebElement scrollContainer;
+	private String indexAttribute;
+	private long indexBase = 0;
+	private int rowCount = -1;
+
+	// Most recently used pages of rows
+	private final Map<Integer, List<Row>> pages;
+
+	public LazyTableFixture(WebElement element, String elementName, JavascriptExecutor executor) {
+		this(element, elementName, executor, defaultPageSize, defaultCachedPages);
+	}
+
+	public LazyTableFixture(WebElement element, String elementName, JavascriptExecutor executor, int pageSize, final int cachedPages) {
+		this.element = element;
+		this.elementName = elementName;
+		this.executor = executor;
+		this.pageSize = pageSize;
+		this.pages = new LinkedHashMap<Integer, List<Row>>(cachedPages + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, List<Row>> eldest) {
+				return size() > cachedPages;
+			}
+		};
+	}
+
+	/**
+	 * Sets the CSS selectors for rows and cells, for grids that are not built with tr/td.
+	 * i.e. "[role=row]" and "[role=gridcell]"
+	 * @param rowSelector		CSS selector for rows, relative to the table element
+	 * @param cellSelector		CSS selector for cells, relative to a row
+	 * @return LazyTableFixture		this fixture
+	 */
+	public LazyTableFixture withSelectors(String rowSelector, String cellSelector) {
+		this.rowSelector = rowSelector;
+		this.cellSelector = cellSelector;
+		clear();
+		return this;
+	}
+
+	/**
+	 * Turns on virtualized grid support.
+	 * @param scrollContainer		the element that scrolls the rows
+	 * @param indexAttribute		the row attribute holding the row index, i.e. "aria-rowindex"
+	 * @param indexBase		the value of indexAttribute on the first row (i.e. 1, or 2 when the header row is counted)
+	 * @return LazyTableFixture		this fixture
+	 */
+	public LazyTableFixture withVirtualScroll(WebElement scrollContainer, String indexAttribute, int indexBase) {
+		this.scrollContainer = scrollContainer;
+		this.indexAttribute = indexAttribute;
+		this.indexBase = indexBase;
+		clear();
+		return this;
+	}
+
+	/**
+	 * Drops the cached pages and row count. Call after the table content changes.
+	 */
+	public void clear() {
+		pages.clear();
+		rowCount = -1;
+	}
+
+	/**
+	 * Return row count.
+	 * For virtualized grids, uses aria-rowcount if present, otherwise scrolls to the last row.
+	 * @return int		The number of rows
+	 */
+	public int getRowCount() {
+		if (rowCount < 0) {
+			if (indexAttribute == null) {
+				rowCount = ((Number) executor.executeScript("return arguments[0].querySelectorAll(arguments[1]).length;",
+						element, rowSelector)).intValue();
+			} else {
+				String ariaRowCount = element.getAttribute("aria-rowcount");
+				if (ariaRowCount != null && ariaRowCount.matches("\\d+")) {
+					rowCount = (int) (Long.parseLong(ariaRowCount) - indexBase + 1);
+				} else {
+					rowCount = ((Number) executor.executeScript(lastIndexScript, scrollContainer, rowSelector,
+							indexAttribute, indexBase)).intValue() + 1;
+				}
+			}
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Returns the text of a desired cell
+	 * @param row		The row
+	 * @param column		The column
+	 * @return String		Text from the cell, or null if the row has no such column
+	 */
+	public String getCellText(int row, int column) {
+		List<String> cells = getRow(row).cells;
+		if (column < 1 || column > cells.size()) {
+			return null;
+		}
+		return cells.get(column - 1);
+	}
+
+	/**
+	 * Returns the text of a whole row
+	 * @param row		The row
+	 * @return String		Text from the row
+	 */
+	public String getRowText(int row) {
+		return getRow(row).text;
+	}
+
+	/**
+	 * Return row number if a column text equals
+	 * the given search string.
+	 * @param item		The item to search for
+	 * @param searchColumn		The column to search in
+	 * @return int		The row found.  -1 if not found.
+	 */
+	public int findItemRow(String item, int searchColumn) {
+		String search = item.trim();
+		for (int page = 0; page * pageSize < getRowCount(); page++) {
+			for (Row row : getPage(page)) {
+				if (row.cell(searchColumn) != null && row.cell(searchColumn).equalsIgnoreCase(search)) {
+					return row.index;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return row number if a column text contains
+	 * the given search string.
+	 * @param item		The item to search for
+	 * @param searchColumn		The column to search in
+	 * @return int		The row found.  -1 if not found.
+	 */
+	public int findRowContains(String item, int searchColumn) {
+		String search = item.toLowerCase();
+		for (int page = 0; page * pageSize < getRowCount(); page++) {
+			for (Row row : getPage(page)) {
+				if (row.cell(searchColumn) != null && row.cell(searchColumn).toLowerCase().contains(search)) {
+					return row.index;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return row number if it contains the given string
+	 * @param item		The item to search for
+	 * @return int		The row found.  -1 if not found.
+	 */
+	public int findRowContains(String item) {
+		String search = item.toLowerCase();
+		for (int page = 0; page * pageSize < getRowCount(); page++) {
+			for (Row row : getPage(page)) {
+				if (row.text.toLowerCase().contains(search)) {
+					return row.index;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the row element, scrolling it into the rendered range for virtualized grids.
+	 * @param row		The row
+	 * @return WebElement		the row element
+	 */
+	public WebElement getRowElement(int row) {
+		if (indexAttribute != null) {
+			renderRows(row, 1);
+		}
+		WebElement rowElement = (WebElement) executor.executeScript(rowScript, element, rowSelector, row, indexAttribute, indexBase);
+		if (rowElement == null) {
+			throw new NoSuchElementException("Row " + row + " NOT FOUND.");
+		}
+		return rowElement;
+	}
+
+	/**
+	 * Click a specific cell, based on row and column
+	 * @param row		The row
+	 * @param column		The column
+	 */
+	public void clickCell(int row, int column) {
+		WebElement rowElement = getRowElement(row);
+		List<WebElement> cells = rowElement.findElements(By.cssSelector(cellSelector));
+		cells.get(column - 1).click();
+	}
+
+	private Row getRow(int row) {
+		for (Row thisRow : getPage(row / pageSize)) {
+			if (thisRow.index == row) {
+				return thisRow;
+			}
+		}
+		throw new NoSuchElementException("Row " + row + " NOT FOUND.");
+	}
+
+	/*
+	 * Returns a page of rows, from the cache or fetched with one script call.
+	 */
+	private List<Row> getPage(int page) {
+		List<Row> rows = pages.get(page);
+		if (rows == null) {
+			int start = page * pageSize;
+			int count = Math.min(pageSize, getRowCount() - start);
+			rows = (indexAttribute == null) ? fetchRows(start, count) : renderRows(start, count);
+			pages.put(page, rows);
+		}
+		return rows;
+	}
+
+	/*
+	 * Virtualized grids: scrolls until every row of the range has been rendered and read.
+	 */
+	private List<Row> renderRows(final int start, final int count) {
+		final Map<Integer, Row> found = new LinkedHashMap<Integer, Row>();
+		for (Row row : fetchRows(start, count)) {
+			found.put(row.index, row);
+		}
+		while (found.size() < count) {
+			int missing = start;
+			while (found.containsKey(missing)) {
+				missing++;
+			}
+			executor.executeScript(scrollScript, scrollContainer, rowSelector, missing, indexAttribute, indexBase);
+			final int before = found.size();
+			boolean rendered = new Poller(renderTimeoutMillis).withInterval(50).describedAs("grid rows from " + missing).until(new Poller.Condition() {
+				@Override
+				public boolean check() {
+					for (Row row : fetchRows(start, count)) {
+						found.put(row.index, row);
+					}
+					return found.size() > before;
+				}
+			});
+			if (!rendered) {
+				break; // Row count was too high, or the grid stopped rendering
+			}
+		}
+		List<Row> rows = new ArrayList<Row>();
+		for (int i = start; i < start + count; i++) {
+			if (found.containsKey(i)) {
+				rows.add(found.get(i));
+			}
+		}
+		return rows;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Row> fetchRows(int start, int count) {
+		List<Object> result = (List<Object>) executor.executeScript(fetchScript, element, rowSelector, cellSelector,
+				start, count, indexAttribute, indexBase);
+		List<Row> rows = new ArrayList<Row>();
+		for (Object rowObject : (List<Object>) result.get(1)) {
+			List<Object> rowValues = (List<Object>) rowObject;
+			List<String> cells = new ArrayList<String>();
+			for (Object cell : (List<Object>) rowValues.get(2)) {
+				cells.add(cell == null ? "" : cell.toString());
+			}
+			rows.add(new Row(((Number) rowValues.get(0)).intValue(), String.valueOf(rowValues.get(1)), cells));
+		}
+		return rows;
+	}
+
+	/*
+	 * The text of a fetched row.
+	 */
+	private static class Row {
+		private final int index;
+		private final String text;
+		private final List<String> cells;
+
+		private Row(int index, String text, List<String> cells) {
+			this.index = index;
+			this.text = text;
+			this.cells = cells;
+		}
+
+		private String cell(int column) {
+			return (column < 1 || column > cells.size()) ? null : cells.get(column - 1);
+		}
+	}
+}
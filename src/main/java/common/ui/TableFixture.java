@@ -1,25 +1,45 @@
 package common.ui;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebElement;
 
 
 /**
  * This class is a "Helper class" for interacting with
  * tables.
+ * 
+ * In snapshot mode (see BasePage.getTableSnapshotObject), the table text is
+ * captured with one script call (TableSnapshot) and the search/text methods
+ * run against it locally. The row/data/header element lists are then only
+ * fetched when first used (getCell, clickCell, or reading the public lists).
+ * Call refreshSnapshot() after the table content changes.
+ * 
+ * Snapshot searches go through a column index (TableIndex), built on the first
+ * search of each column, so repeat lookups don't rescan the rows. The index is
+ * dropped when the snapshot is refreshed, or when the table element goes stale
+ * (re-rendered). Staleness is probed at most once per 'table_stale_check_millis'
+ * (default 1000), not on every lookup.
  * @author mlabbe
  *
  */
 public class TableFixture {
 
-	@SuppressWarnings("unused")
+	private static final long staleCheckMillis = Long.getLong("table_stale_check_millis", 1000L);
+
 	private final WebElement element;
-	@SuppressWarnings("unused")
 	private String elementName;
+	private JavascriptExecutor executor;
+	private TableSnapshot snapshot;
+	private TableIndex index;
+	private long staleCheckedAt = 0;
 	
+	// NOTE: in snapshot mode these are fetched on first use (see ElementList)
 	public List<WebElement> tableRows;
 	public List<WebElement> tableData;
 	public List<WebElement> tableHeaders;
@@ -46,6 +66,99 @@ public class TableFixture {
 		}
 	}
 	
+	// Constructor - Snapshot mode. Captures the table text in a single script call.
+	public TableFixture(WebElement element, String elementName, JavascriptExecutor executor) throws Exception {
+		this.element = element;
+		this.elementName = elementName;
+		this.executor = executor;
+		refreshSnapshot();
+	}
+	
+	/**
+	 * Snapshot mode: re-captures the table text, and drops any fetched elements.
+	 */
+	public void refreshSnapshot() {
+		if (executor == null) {
+			return;
+		}
+		index = null;
+		try {
+			snapshot = TableSnapshot.capture(executor, element);
+			staleCheckedAt = System.currentTimeMillis();
+		} catch (StaleElementReferenceException e) {
+			throw new StaleElementReferenceException("Table '" + elementName + "' is stale, get a new TableFixture", e);
+		}
+		tableRows = new ElementList(By.tagName("tr"));
+		tableData = new ElementList(By.tagName("td"));
+		tableHeaders = new ElementList(By.tagName("th"));
+		tableRowsDiv = new ElementList(By.tagName("div"));
+		visibleTableRows = new ElementList(null);
+	}
+	
+	/*
+	 * Snapshot mode: a list of the table elements, fetched from the page the first time it is read.
+	 * With no locator, it is the visible rows (of tableRows).
+	 */
+	private final class ElementList extends AbstractList<WebElement> {
+		private final By locator;
+		private List<WebElement> elements;
+		
+		private ElementList(By locator) {
+			this.locator = locator;
+		}
+		
+		private List<WebElement> elements() {
+			if (elements == null) {
+				if (locator != null) {
+					elements = element.findElements(locator);
+				} else {
+					elements = new ArrayList<WebElement>();
+					for (WebElement row : tableRows) {
+						if(row.isDisplayed()) {
+							elements.add(row);
+						}
+					}
+				}
+			}
+			return elements;
+		}
+		
+		@Override
+		public WebElement get(int index) {
+			return elements().get(index);
+		}
+		
+		@Override
+		public int size() {
+			return elements().size();
+		}
+	}
+	
+	/**
+	 * Returns true if the fixture works from a snapshot
+	 * @return boolean		true/false
+	 */
+	public boolean isSnapshotMode() {
+		return snapshot != null;
+	}
+	
+	// Column index of the snapshot, built on first use, dropped if the table element went stale
+	private TableIndex index() {
+		long now = System.currentTimeMillis();
+		if (now - staleCheckedAt >= staleCheckMillis) {
+			try {
+				element.isEnabled();
+			} catch (StaleElementReferenceException e) {
+				index = null;
+				throw new StaleElementReferenceException("Table '" + elementName + "' is stale, get a new TableFixture", e);
+			}
+			staleCheckedAt = now;
+		}
+		if (index == null) {
+			index = new TableIndex(snapshot);
+		}
+		return index;
+	}
 	
 	/**
 	 * Return row count
@@ -53,6 +166,9 @@ public class TableFixture {
 	 * 		The number of rows
 	 */
 	public int getRowCount() {
+		if (snapshot != null) {
+			return snapshot.getRowCount();
+		}
 		return tableRows.size();
 	}
 
@@ -61,6 +177,9 @@ public class TableFixture {
 	 * @return int		the number of visible rows
 	 */
 	public int getVisibleRowCount() {
+		if (snapshot != null) {
+			return snapshot.getVisibleRowCount();
+		}
 		return visibleTableRows.size();
 	}
 	
@@ -70,6 +189,9 @@ public class TableFixture {
 	 * 		The number of data elements
 	 */
 	public int getDataCount() {
+		if (snapshot != null) {
+			return snapshot.getDataCount();
+		}
 		return tableData.size();
 	}
 	
@@ -86,6 +208,10 @@ public class TableFixture {
 	public ArrayList<Integer> findAllItemRows(String item, int searchColumn) {
 		ArrayList<Integer> returnList = new ArrayList<Integer>();
 		
+		if (snapshot != null) {
+			returnList.addAll(index().findAllExact(item, searchColumn));
+			return returnList;
+		}
 		for (int i=0; i<getRowCount(); i++) {
 			if (tableRows.get(i).findElement(By.xpath(".//td["+searchColumn+"]")).getText().trim().equalsIgnoreCase(item.trim())) {
 				returnList.add(i);
@@ -106,6 +232,9 @@ public class TableFixture {
 	 */
 	public int findItemRow(String item, int searchColumn) {
 		int foundRow = -1;
+		if (snapshot != null) {
+			return index().findFirstExact(item, searchColumn);
+		}
 		for (int i=0; i<getRowCount(); i++) {
 			//Reporter.log(tableRows.get(i).findElement(By.xpath(".//td["+searchColumn+"]")).getText().trim(), true);
 			if (tableRows.get(i).findElement(By.xpath(".//td["+searchColumn+"]")).getText().trim().equalsIgnoreCase(item.trim())) {
@@ -128,6 +257,9 @@ public class TableFixture {
 	 */
 	public int findRowContains(String item, int searchColumn) {
 		int foundRow = -1;
+		if (snapshot != null) {
+			return index().findFirstContains(item, searchColumn);
+		}
 		for (int i=0; i<getRowCount(); i++) {
 			if (tableRows.get(i).findElement(By.xpath(".//td["+searchColumn+"]")).getText().trim().toLowerCase().contains(item.toLowerCase())) {
 				foundRow = i;
@@ -137,6 +269,30 @@ public class TableFixture {
 		return foundRow;
 	}
 	
+	/**
+	 * Return row number if a column text starts with
+	 * the given search string.
+	 * @param item
+	 * 		The item to search for
+	 * @param searchColumn
+	 * 		The column to search in
+	 * @return int
+	 * 		The row found.  -1 if not found.
+	 */
+	public int findRowStartsWith(String item, int searchColumn) {
+		int foundRow = -1;
+		if (snapshot != null) {
+			return index().findFirstPrefix(item, searchColumn);
+		}
+		for (int i=0; i<getRowCount(); i++) {
+			if (tableRows.get(i).findElement(By.xpath(".//td["+searchColumn+"]")).getText().trim().toLowerCase().startsWith(item.toLowerCase())) {
+				foundRow = i;
+				break;
+			}
+		}
+		return foundRow;
+	}
+	
 	/**
 	 * Return row number if it contains the given string
 	 * @param item
@@ -144,6 +300,9 @@ public class TableFixture {
 	 */
 	public int findRowContains(String item) {
 		int foundRow = -1;
+		if (snapshot != null) {
+			return index().findFirstRowContains(item);
+		}
 		for (int i=0; i<getRowCount(); i++) {
 			if (tableRows.get(i).getText().trim().toLowerCase().contains(item.toLowerCase())) {
 				foundRow = i;
@@ -162,6 +321,15 @@ public class TableFixture {
 	 */
 	public int findHeaderColumn(String header) {
 		int foundColumn = -1;
+		if (snapshot != null) {
+			List<String> headerTexts = snapshot.getHeaders();
+			for (int i=0; i<headerTexts.size(); i++) {
+				if (headerTexts.get(i).toLowerCase().equals(header.toLowerCase())) {
+					return i;
+				}
+			}
+			return foundColumn;
+		}
 		for (int i=0; i<tableHeaders.size(); i++) {
 			if (tableHeaders.get(i).getText().trim().toLowerCase().equals(header.toLowerCase())) {
 				foundColumn = i;
@@ -174,6 +342,14 @@ public class TableFixture {
 	//----------------Temporary method to find table header with td tag----------------//
 	public int findTDHeaderColumn(String header) {
 		int foundColumn = -1;
+		if (snapshot != null) {
+			for (int i=0; i<snapshot.getDataCount(); i++) {
+				if (snapshot.getDataText(i).toLowerCase().equals(header.toLowerCase())) {
+					return i;
+				}
+			}
+			return foundColumn;
+		}
 		for (int i=0; i<tableData.size(); i++) {
 			if (tableData.get(i).getText().trim().toLowerCase().equals(header.toLowerCase())) {
 				foundColumn = i;
@@ -190,6 +366,9 @@ public class TableFixture {
 	 * 		columns found
 	 */
 	public int getColumnCount() {
+		if (snapshot != null) {
+			return snapshot.getRowCells(0).size();
+		}
 		List<WebElement> columns = tableRows.get(0).findElements(By.xpath(".//td"));
 		return columns.size();
 	}
@@ -229,6 +408,12 @@ public class TableFixture {
 	 * 		Text from the cell
 	 */
 	public String getCellText(int row, int column) {
+		if (snapshot != null) {
+			String cellText = snapshot.getCellText(row, column);
+			if (cellText != null) {
+				return cellText;
+			}
+		}
 		return tableRows.get(row).findElement(By.xpath(".//td["+column+"]")).getText().trim();
 	}
 	
@@ -254,6 +439,9 @@ public class TableFixture {
 	 * 		The text
 	 */
 	public String getDataIndexText(int index) {
+		if (snapshot != null) {
+			return snapshot.getDataText(index);
+		}
 		return tableData.get(index).getText().trim();
 	}
 	
@@ -0,0 +1,246 @@
+package common.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class indexes the text of a TableSnapshot by column, so repeated
+ * TableFixture searches don't rescan every row.
+ * - Exact (case-insensitive, trimmed) lookups use a hash index: O(1).
+ * - Prefix lookups use a sorted index of the cell texts: O(log n).
+ * - Contains lookups use a sorted index of all the suffixes of the cell texts: O(log n).
+ *   Both sorted indexes keep the first row of each key in a min segment tree, so the
+ *   first match of a short search (e.g. "a") doesn't walk all the matching keys.
+ *   Only short cells are suffix indexed (the suffixes of a cell are O(L^2) characters),
+ *   longer cells are scanned.
+ * - Whole-row contains lookups are remembered per search string.
+ *
+ * Each column is only indexed the first time it is searched.
+ * Rows are 0 based, columns are 1 based (like TableFixture).
+ *
+ * @author mlabbe
+ *
+ */
+public class TableIndex {
+
+	// Cells longer than this are not suffix indexed (scanned instead) to bound memory
+	private static final int maxSuffixIndexedLength = 32;
+
+	/*
+	 * Sorted keys, with the first row of each key in a min segment tree
+	 */
+	private static final class SortedRows {
+		private final String[] keys;
+		private final int[] tree;
+
+		private SortedRows(TreeMap<String, Integer> firstRows) {
+			int count = firstRows.size();
+			keys = firstRows.keySet().toArray(new String[count]);
+			tree = new int[Math.max(2, 2 * count)];
+			Arrays.fill(tree, Integer.MAX_VALUE);
+			int i = count;
+			for (Integer row : firstRows.values()) {
+				tree[i++] = row;
+			}
+			for (i = count - 1; i > 0; i--) {
+				tree[i] = Math.min(tree[2 * i], tree[2 * i + 1]);
+			}
+		}
+
+		/*
+		 * The first row of the keys that start with the prefix, -1 if none: O(log n)
+		 */
+		private int firstRow(String prefix) {
+			int low = lowerBound(prefix) + keys.length;
+			int high = lowerBound(prefix + Character.MAX_VALUE) + keys.length;
+			int row = Integer.MAX_VALUE;
+			while (low < high) {
+				if ((low & 1) == 1) {
+					row = Math.min(row, tree[low++]);
+				}
+				if ((high & 1) == 1) {
+					row = Math.min(row, tree[--high]);
+				}
+				low >>= 1;
+				high >>= 1;
+			}
+			return row == Integer.MAX_VALUE ? -1 : row;
+		}
+
+		// Index of the first key >= the given key
+		private int lowerBound(String key) {
+			int low = 0;
+			int high = keys.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (keys[middle].compareTo(key) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	private final TableSnapshot snapshot;
+	private final Map<Integer, Map<String, List<Integer>>> exactIndex = new HashMap<Integer, Map<String, List<Integer>>>();
+	private final Map<Integer, SortedRows> prefixIndex = new HashMap<Integer, SortedRows>();
+	private final Map<Integer, SortedRows> suffixIndex = new HashMap<Integer, SortedRows>();
+	private final Map<Integer, List<Integer>> longCells = new HashMap<Integer, List<Integer>>();
+	private final Map<String, Integer> rowContainsResults = new HashMap<String, Integer>();
+
+	public TableIndex(TableSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Returns all rows where the column text equals the item (case-insensitive, trimmed)
+	 * @param item		the item to look for
+	 * @param column		the column
+	 * @return List		the rows, in order
+	 */
+	public List<Integer> findAllExact(String item, int column) {
+		List<Integer> rows = getExactIndex(column).get(item.trim().toLowerCase());
+		return rows == null ? Collections.<Integer>emptyList() : Collections.unmodifiableList(rows);
+	}
+
+	/**
+	 * Returns the first row where the column text equals the item (case-insensitive, trimmed)
+	 * @param item		the item to look for
+	 * @param column		the column
+	 * @return int		the row, -1 if not found
+	 */
+	public int findFirstExact(String item, int column) {
+		List<Integer> rows = findAllExact(item, column);
+		return rows.isEmpty() ? -1 : rows.get(0);
+	}
+
+	/**
+	 * Returns the first row where the column text starts with the item (case-insensitive)
+	 * @param item		the item to look for
+	 * @param column		the column
+	 * @return int		the row, -1 if not found
+	 */
+	public int findFirstPrefix(String item, int column) {
+		return getPrefixIndex(column).firstRow(item.toLowerCase());
+	}
+
+	/**
+	 * Returns the first row where the column text contains the item (case-insensitive)
+	 * @param item		the item to look for
+	 * @param column		the column
+	 * @return int		the row, -1 if not found
+	 */
+	public int findFirstContains(String item, int column) {
+		String search = item.toLowerCase();
+		int foundRow = getSuffixIndex(column).firstRow(search);
+		for (int row : longCells.get(column)) {
+			if (foundRow != -1 && row > foundRow) {
+				break;
+			}
+			if (snapshot.getCellText(row, column).toLowerCase().contains(search)) {
+				foundRow = row;
+				break;
+			}
+		}
+		return foundRow;
+	}
+
+	/**
+	 * Returns the first row where the whole row text contains the item (case-insensitive)
+	 * @param item		the item to look for
+	 * @return int		the row, -1 if not found
+	 */
+	public int findFirstRowContains(String item) {
+		String search = item.toLowerCase();
+		Integer foundRow = rowContainsResults.get(search);
+		if (foundRow == null) {
+			foundRow = -1;
+			for (int i = 0; i < snapshot.getRowCount(); i++) {
+				if (snapshot.getRowText(i).toLowerCase().contains(search)) {
+					foundRow = i;
+					break;
+				}
+			}
+			rowContainsResults.put(search, foundRow);
+		}
+		return foundRow;
+	}
+
+	private Map<String, List<Integer>> getExactIndex(int column) {
+		Map<String, List<Integer>> index = exactIndex.get(column);
+		if (index == null) {
+			index = new HashMap<String, List<Integer>>();
+			for (int i = 0; i < snapshot.getRowCount(); i++) {
+				String cellText = snapshot.getCellText(i, column);
+				if (cellText != null) {
+					addRow(index, cellText.trim().toLowerCase(), i);
+				}
+			}
+			exactIndex.put(column, index);
+		}
+		return index;
+	}
+
+	private SortedRows getPrefixIndex(int column) {
+		SortedRows index = prefixIndex.get(column);
+		if (index == null) {
+			TreeMap<String, Integer> firstRows = new TreeMap<String, Integer>();
+			for (int i = 0; i < snapshot.getRowCount(); i++) {
+				String cellText = snapshot.getCellText(i, column);
+				if (cellText != null && !firstRows.containsKey(cellText.toLowerCase())) {
+					firstRows.put(cellText.toLowerCase(), i);
+				}
+			}
+			index = new SortedRows(firstRows);
+			prefixIndex.put(column, index);
+		}
+		return index;
+	}
+
+	private SortedRows getSuffixIndex(int column) {
+		SortedRows index = suffixIndex.get(column);
+		if (index == null) {
+			TreeMap<String, Integer> firstRows = new TreeMap<String, Integer>();
+			List<Integer> longRows = new ArrayList<Integer>();
+			for (int i = 0; i < snapshot.getRowCount(); i++) {
+				String cellText = snapshot.getCellText(i, column);
+				if (cellText == null) {
+					continue;
+				}
+				if (cellText.length() > maxSuffixIndexedLength) {
+					longRows.add(i);
+					continue;
+				}
+				String lowerText = cellText.toLowerCase();
+				for (int start = 0; start <= lowerText.length(); start++) {
+					String suffix = lowerText.substring(start);
+					if (!firstRows.containsKey(suffix)) {
+						firstRows.put(suffix, i);
+					}
+				}
+			}
+			index = new SortedRows(firstRows);
+			suffixIndex.put(column, index);
+			longCells.put(column, longRows);
+		}
+		return index;
+	}
+
+	private void addRow(Map<String, List<Integer>> index, String key, int row) {
+		List<Integer> rows = index.get(key);
+		if (rows == null) {
+			rows = new ArrayList<Integer>(1);
+			index.put(key, rows);
+		}
+		if (rows.isEmpty() || rows.get(rows.size() - 1) != row) {
+			rows.add(row);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package common.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebElement;
+
+/**
+ * This class holds an in-memory copy of a table's text, captured with
+ * a single JavascriptExecutor call instead of one round-trip per row/cell.
+ * - Header texts (th)
+ * - Cell texts for each row (tr/td)
+ * - Row texts and row visibility
+ * - All data texts (td) in document order
+ *
+ * Texts are trimmed, and empty for elements that are not displayed (like getText()).
+ * Used by TableFixture in snapshot mode.
+ *
+ * @author mlabbe
+ *
+ */
+public class TableSnapshot {
+
+	private static final String captureScript =
+			"var table = arguments[0];"
+			+ "function visible(e) { return !!(e.offsetWidth || e.offsetHeight || e.getClientRects().length); }"
+			+ "function text(e) { return visible(e) ? (e.innerText || e.textContent || '').replace(/\\u00a0/g, ' ').trim() : ''; }"
+			+ "var headers = [], rows = [], rowTexts = [], rowVisible = [], data = [];"
+			+ "var ths = table.getElementsByTagName('th');"
+			+ "for (var h = 0; h < ths.length; h++) { headers.push(text(ths[h])); }"
+			+ "var trs = table.getElementsByTagName('tr');"
+			+ "for (var r = 0; r < trs.length; r++) {"
+			+ "  var cells = [], tds = trs[r].getElementsByTagName('td');"
+			+ "  for (var c = 0; c < tds.length; c++) { cells.push(text(tds[c])); }"
+			+ "  rows.push(cells); rowTexts.push(text(trs[r])); rowVisible.push(visible(trs[r]));"
+			+ "}"
+			+ "var allTds = table.getElementsByTagName('td');"
+			+ "for (var d = 0; d < allTds.length; d++) { data.push(text(allTds[d])); }"
+			+ "return [headers, rows, rowTexts, rowVisible, data];";
+
+	private final List<String> headers;
+	private final List<List<String>> rows;
+	private final List<String> rowTexts;
+	private final List<Boolean> rowVisible;
+	private final List<String> data;
+	private final int visibleRowCount;
+
+	private TableSnapshot(List<String> headers, List<List<String>> rows, List<String> rowTexts, List<Boolean> rowVisible, List<String> data) {
+		this.headers = headers;
+		this.rows = rows;
+		this.rowTexts = rowTexts;
+		this.rowVisible = rowVisible;
+		this.data = data;
+		int visible = 0;
+		for (Boolean isVisible : rowVisible) {
+			if (isVisible) {
+				visible++;
+			}
+		}
+		this.visibleRowCount = visible;
+	}
+
+	/**
+	 * Captures the table in one script call
+	 * @param executor		the driver
+	 * @param table		the table element
+	 * @return TableSnapshot		the captured table
+	 */
+	@SuppressWarnings("unchecked")
+	public static TableSnapshot capture(JavascriptExecutor executor, WebElement table) {
+		List<Object> result = (List<Object>) executor.executeScript(captureScript, table);
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (Object row : (List<Object>) result.get(1)) {
+			rows.add(toStrings((List<Object>) row));
+		}
+		List<Boolean> rowVisible = new ArrayList<Boolean>();
+		for (Object visible : (List<Object>) result.get(3)) {
+			rowVisible.add(Boolean.TRUE.equals(visible));
+		}
+		return new TableSnapshot(toStrings((List<Object>) result.get(0)), rows,
+				toStrings((List<Object>) result.get(2)), rowVisible, toStrings((List<Object>) result.get(4)));
+	}
+
+	private static List<String> toStrings(List<Object> values) {
+		List<String> strings = new ArrayList<String>(values.size());
+		for (Object value : values) {
+			strings.add(value == null ? "" : value.toString());
+		}
+		return strings;
+	}
+
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	public int getVisibleRowCount() {
+		return visibleRowCount;
+	}
+
+	public int getDataCount() {
+		return data.size();
+	}
+
+	public boolean isRowVisible(int row) {
+		return rowVisible.get(row);
+	}
+
+	public List<String> getHeaders() {
+		return Collections.unmodifiableList(headers);
+	}
+
+	/**
+	 * Returns the cell texts of a row
+	 * @param row		the row index (0 based)
+	 * @return List		the cell texts
+	 */
+	public List<String> getRowCells(int row) {
+		return Collections.unmodifiableList(rows.get(row));
+	}
+
+	/**
+	 * Returns the text of the whole row
+	 * @param row		the row index (0 based)
+	 * @return String		the row text
+	 */
+	public String getRowText(int row) {
+		return rowTexts.get(row);
+	}
+
+	/**
+	 * Returns the text of a cell, or null if the row has no such column
+	 * @param row		the row index (0 based)
+	 * @param column		the column (1 based, like .//td[column])
+	 * @return String		the cell text
+	 */
+	public String getCellText(int row, int column) {
+		List<String> cells = rows.get(row);
+		if (column < 1 || column > cells.size()) {
+			return null;
+		}
+		return cells.get(column - 1);
+	}
+
+	/**
+	 * Returns the text of a data (td) item
+	 * @param index		the index in document order
+	 * @return String		the text
+	 */
+	public String getDataText(int index) {
+		return data.get(index);
+	}
+}
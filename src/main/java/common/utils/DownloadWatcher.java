@@ -0,0 +1,282 @@
+package common.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Reporter;
+
+import common.ui.BasePage;
+
+/**
+ * This class detects browser downloads, using a WatchService on the download folders.
+ * - Waiting tests are woken up when files in a watched folder are created, modified, or renamed.
+ * - A download is complete once the file exists, has no partial sibling
+ *   (Chrome '.crdownload', Firefox '.part'), and its size has stopped growing.
+ * - Each browser session gets its own download sub folder, and the current test thread
+ *   is pointed at the folder of the session it leased, so parallel tests don't collide.
+ *
+ * @author mlabbe
+ *
+ */
+public class DownloadWatcher {
+
+	private static final String[] partialExtensions = { ".crdownload", ".part" };
+	private static final long stableMillis = 500; // File size must not change for this long
+	private static final long maxEventWaitMillis = 1000; // Re-check at least this often, in case events are late
+
+	private static final DownloadWatcher instance = new DownloadWatcher();
+	private static ThreadLocal<String> currentFolder = new ThreadLocal<String>();
+
+	private final AtomicInteger sessionCount = new AtomicInteger();
+	private final Set<String> sessionFolders = ConcurrentHashMap.newKeySet();
+	private final Map<Path, WatchKey> watchedFolders = new ConcurrentHashMap<Path, WatchKey>();
+	private final Object eventLock = new Object();
+	private WatchService watchService;
+
+	private DownloadWatcher() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			Thread eventThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					processEvents();
+				}
+			}, "download-watcher");
+			eventThread.setDaemon(true);
+			eventThread.start();
+		} catch (IOException e) {
+			Reporter.log("-- DownloadWatcher: WatchService not available, polling instead: " + e.getMessage(), true);
+			watchService = null;
+		}
+	}
+
+	public static DownloadWatcher getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the download folder for the current test thread.
+	 * Falls back to the shared BasePage.myTempDownloadsFolder.
+	 * @return String		the folder path
+	 */
+	public static String getCurrentFolder() {
+		String folder = currentFolder.get();
+		return (folder != null) ? folder : BasePage.myTempDownloadsFolder;
+	}
+
+	/**
+	 * Points the current test thread at a download folder
+	 * @param folder		the folder path, or null to use the shared folder
+	 */
+	public static void setCurrentFolder(String folder) {
+		if (folder == null) {
+			currentFolder.remove();
+		} else {
+			currentFolder.set(folder);
+		}
+	}
+
+	/**
+	 * Creates a new download sub folder for a browser session, and starts watching it.
+	 * @return String		the full path of the new folder
+	 */
+	public String createSessionFolder() {
+		String root = BasePage.myTempDownloadsFolder;
+		if (root.isEmpty()) {
+			root = System.getProperty("user.dir") + "/target/downloads";
+		}
+		File folder = new File(new File(root).getAbsolutePath(), "session-" + sessionCount.incrementAndGet());
+		if (!folder.exists()) {
+			folder.mkdirs();
+		}
+		watch(folder.toPath());
+		sessionFolders.add(folder.getAbsolutePath());
+		return folder.getAbsolutePath();
+	}
+
+	/**
+	 * Deletes the files in the current test thread's download folder.
+	 * Called when a session goes back to the pool, so the next test starts empty.
+	 */
+	public void cleanCurrentFolder() {
+		String folder = currentFolder.get();
+		if (folder != null && sessionFolders.contains(folder)) { // Only ever clean our own session folders
+			try {
+				FileUtils.cleanDirectory(new File(folder));
+			} catch (Exception e) {
+				// nothing - files still locked by the browser
+			}
+		}
+	}
+
+	/**
+	 * Waits for a download to complete.
+	 * @param file		the expected file
+	 * @param timeoutMillis		max milliseconds to wait
+	 * @return boolean		true if the file was fully downloaded in time
+	 */
+	public boolean waitForFile(final File file, long timeoutMillis) {
+		if (!watch(file.getAbsoluteFile().getParentFile().toPath())) {
+			return new Poller(timeoutMillis).describedAs("download '" + file.getPath() + "'").until(new Poller.Condition() {
+				@Override
+				public boolean check() {
+					return isComplete(file);
+				}
+			});
+		}
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		long lastSize = -1;
+		long stableSince = 0;
+		synchronized (eventLock) {
+			while (true) {
+				long now = System.currentTimeMillis();
+				long waitMillis = deadline - now;
+				if (isComplete(file)) {
+					long size = file.length();
+					if (size == lastSize && (now - stableSince) >= stableMillis) {
+						return true;
+					}
+					if (size != lastSize) { // Still growing
+						lastSize = size;
+						stableSince = now;
+					}
+					waitMillis = Math.min(waitMillis, stableMillis);
+				} else {
+					lastSize = -1;
+				}
+				if (deadline - now <= 0) {
+					Reporter.log("-- DownloadWatcher: '" + file.getPath() + "' NOT downloaded within " + timeoutMillis + "ms", true);
+					return false;
+				}
+				try {
+					eventLock.wait(Math.max(1, Math.min(waitMillis, maxEventWaitMillis)));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for any new download to complete in the given folder.
+	 * Use when the downloaded file name is not known ahead of time.
+	 * @param folderPath		the download folder
+	 * @param timeoutMillis		max milliseconds to wait
+	 * @return File		the downloaded file, or null if none completed in time
+	 */
+	public File waitForNewFile(String folderPath, long timeoutMillis) {
+		File folder = new File(folderPath);
+		Set<String> existing = new HashSet<String>();
+		String[] names = folder.list();
+		if (names != null) {
+			existing.addAll(Arrays.asList(names));
+		}
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (System.currentTimeMillis() < deadline) {
+			File[] files = folder.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (!existing.contains(file.getName()) && !isPartial(file)) {
+						long remaining = deadline - System.currentTimeMillis();
+						return waitForFile(file, Math.max(remaining, stableMillis * 2)) ? file : null;
+					}
+				}
+			}
+			waitForEvent(Math.min(deadline - System.currentTimeMillis(), maxEventWaitMillis));
+		}
+		return null;
+	}
+
+	/*
+	 * The file exists, is not itself a partial file, and has no partial sibling.
+	 */
+	private boolean isComplete(File file) {
+		if (!file.exists() || isPartial(file)) {
+			return false;
+		}
+		for (String extension : partialExtensions) {
+			if (new File(file.getPath() + extension).exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isPartial(File file) {
+		for (String extension : partialExtensions) {
+			if (file.getName().endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void waitForEvent(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		synchronized (eventLock) {
+			try {
+				eventLock.wait(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/*
+	 * Registers a folder with the WatchService. Returns false if it can't be watched.
+	 */
+	private boolean watch(Path folder) {
+		if (watchService == null || !folder.toFile().isDirectory()) {
+			return false;
+		}
+		if (watchedFolders.containsKey(folder)) {
+			return true;
+		}
+		try {
+			WatchKey key = folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			watchedFolders.put(folder, key);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * Runs on the watcher thread. Wakes up the waiting tests on every batch of events.
+	 */
+	private void processEvents() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			key.pollEvents();
+			if (!key.reset()) { // Folder was deleted
+				watchedFolders.values().remove(key);
+			}
+			synchronized (eventLock) {
+				eventLock.notifyAll();
+			}
+		}
+	}
+}
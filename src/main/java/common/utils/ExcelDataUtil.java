@@ -1,20 +1,21 @@
 package common.utils;
 
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
-import org.apache.poi.xssf.usermodel.XSSFRow;
-//import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.testng.annotations.Test;
 
+import common.data.dataprovider.StreamingDataProvider;
 import common.env.TestProperties;
 import common.utils.ValidationUtils.locale;
 
 
 /**
  * This class contains utility methods for getting data from an Excel file.
+ * Sheets are streamed with ExcelStreamReader: only the requested sheet is read,
+ * without loading the workbook, and the file is always closed.
  * 
  * @author mlabbe
  *
@@ -61,28 +62,15 @@ public class ExcelDataUtil {
 	private ArrayList<ArrayList<Object>> fetchExcelSheetData(String filePath, String sheet, String searchKey)
 			throws Exception {
 		ArrayList<ArrayList<Object>> returnData = new ArrayList<ArrayList<Object>>();
-
-		XSSFWorkbook excelBook;
-		XSSFSheet excelSheet;
-		XSSFRow excelRow;
 		int searchKeyColumn = 0;
 
-		try {
-			FileInputStream excelFile = new FileInputStream(filePath);
-			excelBook = new XSSFWorkbook(excelFile); // Fetch Excel File
-			excelSheet = excelBook.getSheet(sheet); // Fetch Given Sheet
-
-			// Loop through each row in the Sheet
-			for (int i = 1; i <= excelSheet.getLastRowNum(); i++) {
-				excelRow = excelSheet.getRow(i); // Fetch current row
-				// Check for the specified searchKey
-				if (excelRow.getCell(searchKeyColumn).toString().equalsIgnoreCase(searchKey)) {
-					ArrayList<Object> currentRowData = new ArrayList<Object>();
-					// Add each cell to array
-					for (int j = 0; j < excelRow.getLastCellNum(); j++) {
-						currentRowData.add(excelRow.getCell(j).toString());
-					}
-					returnData.add(currentRowData);
+		// Stream only the given sheet, row by row
+		try (ExcelStreamReader excelSheet = new ExcelStreamReader(filePath, sheet)) {
+			List<String> excelRow;
+			while ((excelRow = excelSheet.nextRow()) != null) {
+				// Skip the header row, and check for the specified searchKey
+				if (excelSheet.getRowIndex() > 0 && isMatch(excelRow, searchKeyColumn, searchKey)) {
+					returnData.add(new ArrayList<Object>(excelRow));
 				}
 			}
 			return returnData;
@@ -92,6 +80,10 @@ public class ExcelDataUtil {
 		}
 	}
 
+	private static boolean isMatch(List<String> excelRow, int searchKeyColumn, String searchKey) {
+		return excelRow.size() > searchKeyColumn && excelRow.get(searchKeyColumn).equalsIgnoreCase(searchKey);
+	}
+
 	/*
 	 * Converts the Excel ArrayList<ArrayList<Object>> into an Object[][]
 	 * 
@@ -129,6 +121,45 @@ public class ExcelDataUtil {
 		return listArrayConvert(excelDataArray);
 	}
 
+	/**
+	 * Returns the rows from Excel that match the search key, one at a time,
+	 * for a TestNG DataProvider (see StreamingDataProvider). File is determined
+	 * by test environment.
+	 * 
+	 * @param file
+	 *            Specific excel file to read
+	 * @param sheet
+	 *            The sheet name to select
+	 * @param searchKey
+	 *            The search key
+	 * @return Iterator of rows (cell strings)
+	 * @throws Exception
+	 *             throws Exception
+	 */
+	public Iterator<Object[]> getExcelDataIterator(String file, String sheet, final String searchKey) throws Exception {
+		String filePath = getExcelFile(file);
+		final ExcelStreamReader excelSheet = new ExcelStreamReader(filePath, sheet);
+		return new StreamingDataProvider.RecordIterator() {
+			@Override
+			protected Object[] readNext() throws Exception {
+				int searchKeyColumn = 0;
+				// Read on to the next matching row (the header row is skipped)
+				List<String> excelRow;
+				while ((excelRow = excelSheet.nextRow()) != null) {
+					if (excelSheet.getRowIndex() > 0 && isMatch(excelRow, searchKeyColumn, searchKey)) {
+						return excelRow.toArray();
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public void close() throws IOException {
+				excelSheet.close();
+			}
+		};
+	}
+
 	// Read a locale string for a given item from Excel sheet.
 	/**
 	 * Fetch the locale string of a given item for a given locale
@@ -146,36 +177,23 @@ public class ExcelDataUtil {
 	 *             throws exception
 	 */
 	public String getLocaleKeyValue(String file, String sheet, String searchKey, locale myLocale) throws Exception {
-		String returnString = "";
-		String filePath = getExcelFile(file);
+		// The sheet is read once, and shared (see LocaleStringTable)
+		return getLocaleSheet(file, sheet).get(searchKey, myLocale);
+	}
 
-		XSSFWorkbook excelBook;
-		XSSFSheet excelSheet;
-		XSSFRow excelRow;
-		int searchKeyColumn = 0;
-		int localeColumn = 1; // defaults to english
-
-		switch (myLocale) {
-		case EN:
-			localeColumn = 1;
-			break;
-		case ES:
-			localeColumn = 2;
-			break;
-		}
-		FileInputStream excelFile = new FileInputStream(filePath);
-		excelBook = new XSSFWorkbook(excelFile); // Fetch Excel File
-		excelSheet = excelBook.getSheet(sheet); // Fetch Given Sheet
-		int rowCount = excelSheet.getLastRowNum() - excelSheet.getFirstRowNum();
-		for (int i = 0; i <= rowCount; i++) {
-			excelRow = excelSheet.getRow(i);
-			if (excelRow.getCell(searchKeyColumn).toString().equalsIgnoreCase(searchKey)) {
-				returnString = excelRow.getCell(localeColumn).toString();
-				break;
-			}
-		}
-		excelFile.close();
-		// excelBook.close();
-		return returnString;
+	/**
+	 * Fetch all locale strings of a given app sheet. The sheet is read once
+	 * and shared by all threads, and read again if the file changes.
+	 * 
+	 * @param file
+	 *            The locale file to read
+	 * @param sheet
+	 *            The app sheet to read. IE ESS2, PHR
+	 * @return LocaleStringTable.Sheet The localized strings
+	 * @throws Exception
+	 *             throws exception
+	 */
+	public LocaleStringTable.Sheet getLocaleSheet(String file, String sheet) throws Exception {
+		return LocaleStringTable.getInstance().getSheet(getExcelFile(file), sheet);
 	}
 }
@@ -0,0 +1,237 @@
+package common.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+
+/**
+ * This class reads the rows of one sheet of an .xlsx file, without loading the workbook.
+ * - Only the requested sheet is read, pulled row by row from its XML (StAX).
+ * - Shared strings are read once, read-only.
+ * - Cell texts are the same as XSSFCell.toString(): numbers as "1.0", dates as "dd-MMM-yyyy",
+ *   booleans as "TRUE"/"FALSE", formulas as the formula text.
+ * - Missing cells within a row are "". Missing rows are skipped.
+ *
+ * Example:
+ *    try (ExcelStreamReader reader = new ExcelStreamReader(filePath, "Sheet1")) {
+ *        List<String> row;
+ *        while ((row = reader.nextRow()) != null) { ... }
+ *    }
+ *
+ * @author mlabbe
+ *
+ */
+public class ExcelStreamReader implements Closeable {
+
+	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+	private final OPCPackage excelPackage;
+	private final ReadOnlySharedStringsTable sharedStrings;
+	private final StylesTable styles;
+	private final InputStream sheetStream;
+	private final XMLStreamReader sheetReader;
+	private int rowIndex = -1;
+
+	/**
+	 * Opens a sheet
+	 * @param filePath		the .xlsx file
+	 * @param sheet		the sheet name
+	 * @throws Exception		if the file or sheet can't be opened
+	 */
+	public ExcelStreamReader(String filePath, String sheet) throws Exception {
+		excelPackage = OPCPackage.open(filePath, PackageAccess.READ);
+		try {
+			XSSFReader excelReader = new XSSFReader(excelPackage);
+			sharedStrings = new ReadOnlySharedStringsTable(excelPackage);
+			styles = excelReader.getStylesTable();
+			sheetStream = findSheet(excelReader, sheet);
+			if (sheetStream == null) {
+				throw new IllegalArgumentException("Sheet '" + sheet + "' NOT found in " + filePath);
+			}
+			sheetReader = xmlInputFactory.createXMLStreamReader(sheetStream);
+		} catch (Exception e) {
+			excelPackage.revert();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the 0 based index of the row last returned by nextRow()
+	 * @return int		the row index
+	 */
+	public int getRowIndex() {
+		return rowIndex;
+	}
+
+	/**
+	 * Reads the next row
+	 * @return List		the cell texts, or null after the last row
+	 * @throws XMLStreamException		on read errors
+	 */
+	public List<String> nextRow() throws XMLStreamException {
+		while (sheetReader.hasNext()) {
+			if (sheetReader.next() == XMLStreamConstants.START_ELEMENT && sheetReader.getLocalName().equals("row")) {
+				String rowNumber = sheetReader.getAttributeValue(null, "r");
+				rowIndex = (rowNumber != null) ? Integer.parseInt(rowNumber) - 1 : rowIndex + 1;
+				return readRow();
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Reads the cells of the current <row>
+	 */
+	private List<String> readRow() throws XMLStreamException {
+		List<String> cells = new ArrayList<String>();
+		while (sheetReader.hasNext()) {
+			int event = sheetReader.next();
+			if (event == XMLStreamConstants.END_ELEMENT && sheetReader.getLocalName().equals("row")) {
+				break;
+			}
+			if (event == XMLStreamConstants.START_ELEMENT && sheetReader.getLocalName().equals("c")) {
+				int column = getColumn(sheetReader.getAttributeValue(null, "r"), cells.size());
+				while (cells.size() < column) {
+					cells.add("");
+				}
+				cells.add(readCell());
+			}
+		}
+		return cells;
+	}
+
+	/*
+	 * Reads the current <c>, as XSSFCell.toString() would show it
+	 */
+	private String readCell() throws XMLStreamException {
+		String type = sheetReader.getAttributeValue(null, "t");
+		String style = sheetReader.getAttributeValue(null, "s");
+		String value = null;
+		String formula = null;
+		StringBuilder inlineText = null;
+		while (sheetReader.hasNext()) {
+			int event = sheetReader.next();
+			if (event == XMLStreamConstants.END_ELEMENT && sheetReader.getLocalName().equals("c")) {
+				break;
+			}
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String name = sheetReader.getLocalName();
+				if (name.equals("v")) {
+					value = sheetReader.getElementText();
+				} else if (name.equals("f")) {
+					formula = sheetReader.getElementText();
+				} else if (name.equals("t")) { // Inline string (possibly in rich text runs)
+					if (inlineText == null) {
+						inlineText = new StringBuilder();
+					}
+					inlineText.append(sheetReader.getElementText());
+				}
+			}
+		}
+
+		if (formula != null) {
+			return formula;
+		}
+		if ("inlineStr".equals(type)) {
+			return (inlineText == null) ? "" : inlineText.toString();
+		}
+		if (value == null) {
+			return "";
+		}
+		if ("s".equals(type)) {
+			return sharedStrings.getEntryAt(Integer.parseInt(value.trim()));
+		}
+		if ("b".equals(type)) {
+			return value.trim().equals("1") ? "TRUE" : "FALSE";
+		}
+		if ("e".equals(type) || "str".equals(type)) {
+			return value;
+		}
+		return formatNumber(Double.parseDouble(value), style);
+	}
+
+	private String formatNumber(double number, String style) {
+		if (style != null && styles != null) {
+			XSSFCellStyle cellStyle = styles.getStyleAt(Integer.parseInt(style));
+			if (cellStyle != null && DateUtil.isADateFormat(cellStyle.getDataFormat(), cellStyle.getDataFormatString())
+					&& DateUtil.isValidExcelDate(number)) {
+				return new SimpleDateFormat("dd-MMM-yyyy").format(DateUtil.getJavaDate(number));
+			}
+		}
+		return String.valueOf(number);
+	}
+
+	/*
+	 * The 0 based column of a cell reference (e.g. 'C5' is 2). Next column if there is no reference.
+	 */
+	private static int getColumn(String reference, int next) {
+		if (reference == null) {
+			return next;
+		}
+		int column = 0;
+		for (int i = 0; i < reference.length() && Character.isLetter(reference.charAt(i)); i++) {
+			column = (column * 26) + (Character.toUpperCase(reference.charAt(i)) - 'A' + 1);
+		}
+		return column - 1;
+	}
+
+	/**
+	 * Returns the sheet names of a workbook, in workbook order
+	 * @param filePath		the .xlsx file
+	 * @return List		the sheet names
+	 * @throws Exception		if the file can't be opened
+	 */
+	public static List<String> getSheetNames(String filePath) throws Exception {
+		List<String> sheetNames = new ArrayList<String>();
+		OPCPackage excelPackage = OPCPackage.open(filePath, PackageAccess.READ);
+		try {
+			XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) new XSSFReader(excelPackage).getSheetsData();
+			while (sheets.hasNext()) {
+				sheets.next().close();
+				sheetNames.add(sheets.getSheetName());
+			}
+		} finally {
+			excelPackage.revert();
+		}
+		return sheetNames;
+	}
+
+	private static InputStream findSheet(XSSFReader excelReader, String sheet) throws Exception {
+		XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) excelReader.getSheetsData();
+		while (sheets.hasNext()) {
+			InputStream sheetStream = sheets.next();
+			if (sheets.getSheetName().equals(sheet)) {
+				return sheetStream;
+			}
+			sheetStream.close();
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			sheetReader.close();
+		} catch (XMLStreamException e) {
+			// nothing
+		}
+		sheetStream.close();
+		excelPackage.revert(); // Read only: close without saving
+	}
+}
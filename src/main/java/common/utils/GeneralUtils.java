@@ -21,8 +21,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
-import common.ui.BasePage;
-
 /**
  * This Class contains general utilities, such as
  *  - Date utilities
@@ -256,7 +254,8 @@ public class GeneralUtils {
 	}
 
 	/**
-	 * Verifies that a file exists or not
+	 * Verifies that a file exists or not.
+	 * Waits for the file to be fully downloaded (see DownloadWatcher)
 	 * 
 	 * @param filePathString The full path of the file to look for
 	 * @return boolean true/false
@@ -264,25 +263,24 @@ public class GeneralUtils {
 	public boolean verifyFileExists(String filePathString) {
 		boolean returnValue = false;
 		int timeout = 20;
-		File dir = new File(BasePage.myTempDownloadsFolder);
+		File dir = new File(DownloadWatcher.getCurrentFolder());
 
 		Reporter.log(dir.getAbsolutePath(), true);
 		Reporter.log("-- ", true);
 		String[] list = dir.list();
-		for (String thisOne : list) {
-			Reporter.log(thisOne, true);
+		if (list != null) {
+			for (String thisOne : list) {
+				Reporter.log(thisOne, true);
+			}
 		}
 		Reporter.log("-- ", true);
 
 		File fileValue = new File(filePathString);
 
-		Long start = System.nanoTime();
-		while ((((double) System.nanoTime() - start) / 1000000000.0) < timeout) {
-			if (fileValue.exists()) {
-				Reporter.log("-- Waited '" + (((double) System.nanoTime() - start) / 1000000000.0) + "' seconds", true);
-				returnValue = true;
-				break;
-			}
+		long start = System.nanoTime();
+		if (DownloadWatcher.getInstance().waitForFile(fileValue, timeout * 1000)) {
+			Reporter.log("-- Waited '" + (((double) System.nanoTime() - start) / 1000000000.0) + "' seconds", true);
+			returnValue = true;
 		}
 		return returnValue;
 	}
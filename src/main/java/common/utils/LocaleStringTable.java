@@ -0,0 +1,142 @@
+package common.utils;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import common.utils.ValidationUtils.locale;
+
+/**
+ * This class holds the localized strings of the locale workbooks (e.g. Locales.xlsx),
+ * shared by all test threads.
+ * - Each app sheet is read once, on first use, into an immutable (key, locale) table.
+ * - Keys are matched ignoring case. The first row with a key wins, like a scan.
+ * - A sheet is read again when its file changes on disk (modification time or size).
+ *
+ * Example:
+ *    LocaleStringTable.Sheet strings = LocaleStringTable.getInstance().getSheet(filePath, "ESS2");
+ *    String title = strings.get("PageTitle", locale.ES);
+ *
+ * @author mlabbe
+ *
+ */
+public class LocaleStringTable {
+
+	/**
+	 * The localized strings of one app sheet. Never changed after loading.
+	 */
+	public static class Sheet {
+		private final long lastModified;
+		private final long length;
+		private final Map<String, List<String>> rows;
+
+		private Sheet(long lastModified, long length, Map<String, List<String>> rows) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.rows = rows;
+		}
+
+		/**
+		 * Returns the localized string of a key
+		 * @param key		the item (column A), any case
+		 * @param myLocale		the locale
+		 * @return String		the localized string, "" if not found
+		 */
+		public String get(String key, locale myLocale) {
+			List<String> row = rows.get(normalize(key));
+			int localeColumn = getLocaleColumn(myLocale);
+			if (row == null || row.size() <= localeColumn) {
+				return "";
+			}
+			return row.get(localeColumn);
+		}
+	}
+
+	private static final LocaleStringTable instance = new LocaleStringTable();
+
+	private final ConcurrentHashMap<String, Sheet> sheets = new ConcurrentHashMap<String, Sheet>();
+
+	private LocaleStringTable() {
+	}
+
+	public static LocaleStringTable getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the strings of an app sheet, reading it if needed
+	 * @param filePath		the locale workbook
+	 * @param sheet		the app sheet. IE ESS2, PHR
+	 * @return Sheet		the strings
+	 * @throws Exception		if the file or sheet can't be read
+	 */
+	public Sheet getSheet(String filePath, String sheet) throws Exception {
+		File file = new File(filePath);
+		String sheetKey = file.getAbsolutePath() + "|" + sheet;
+		Sheet strings = sheets.get(sheetKey);
+		if (strings != null && strings.lastModified == file.lastModified() && strings.length == file.length()) {
+			return strings;
+		}
+		// Not read yet, or changed. Two threads may both read it; the last one read is kept.
+		strings = load(file, sheet);
+		sheets.put(sheetKey, strings);
+		return strings;
+	}
+
+	/**
+	 * Returns the localized string of a key
+	 * @param filePath		the locale workbook
+	 * @param sheet		the app sheet. IE ESS2, PHR
+	 * @param key		the item to search for
+	 * @param myLocale		the locale
+	 * @return String		the localized string, "" if not found
+	 * @throws Exception		if the file or sheet can't be read
+	 */
+	public String get(String filePath, String sheet, String key, locale myLocale) throws Exception {
+		return getSheet(filePath, sheet).get(key, myLocale);
+	}
+
+	/**
+	 * Drops all sheets, so they are read again on next use
+	 */
+	public void clear() {
+		sheets.clear();
+	}
+
+	private static Sheet load(File file, String sheet) throws Exception {
+		// Read the size and time first: a change while reading is then picked up on next use
+		long lastModified = file.lastModified();
+		long length = file.length();
+		Map<String, List<String>> rows = new HashMap<String, List<String>>();
+		try (ExcelStreamReader excelSheet = new ExcelStreamReader(file.getPath(), sheet)) {
+			List<String> excelRow;
+			while ((excelRow = excelSheet.nextRow()) != null) {
+				if (!excelRow.isEmpty() && !rows.containsKey(normalize(excelRow.get(0)))) {
+					rows.put(normalize(excelRow.get(0)), Collections.unmodifiableList(excelRow));
+				}
+			}
+		}
+		return new Sheet(lastModified, length, Collections.unmodifiableMap(rows));
+	}
+
+	private static String normalize(String key) {
+		return key.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT); // Like equalsIgnoreCase, in any default locale
+	}
+
+	private static int getLocaleColumn(locale myLocale) {
+		int localeColumn = 1; // defaults to english
+		switch (myLocale) {
+		case EN:
+			localeColumn = 1;
+			break;
+		case ES:
+			localeColumn = 2;
+			break;
+		}
+		return localeColumn;
+	}
+}
@@ -33,8 +33,8 @@ public class PDFUtils extends BasePage {
 	 * ** This should be used for non IE browsers.
 	 */
 	private File fetchPDFFile(URL url, String savedFilename) throws Exception {
-		String filePathString = myTempDownloadsFolder+"\\"+savedFilename+".pdf";
-		File dir = new File(myTempDownloadsFolder);
+		String filePathString = getDownloadFolder()+"\\"+savedFilename+".pdf";
+		File dir = new File(getDownloadFolder());
 		File returnValue = new File(filePathString);
 		
 		if (!dir.exists()) { // Make Dir if needed
@@ -57,9 +57,9 @@ public class PDFUtils extends BasePage {
 	 */
 	private File fetchIEPDFFile(String savedFileName) throws Exception {
 		RobotUtils robotUtils = new RobotUtils(driver);
-		String filePathString = myTempDownloadsFolder+"\\"+savedFileName+".pdf";
+		String filePathString = getDownloadFolder()+"\\"+savedFileName+".pdf";
 		File returnValue = new File(filePathString);
-		File dir = new File(myTempDownloadsFolder);
+		File dir = new File(getDownloadFolder());
 		
 		if (!dir.exists()) { // Make Dir if needed
 			dir.mkdir();
@@ -0,0 +1,169 @@
+package common.utils;
+
+import org.testng.Reporter;
+
+/**
+ * This class is the shared polling engine for waits that are not covered by WebDriverWait.
+ * - Polls a condition until it is true or the timeout is hit.
+ * - Sleeps between polls, starting at the interval and backing off exponentially up to the max interval.
+ * - Counts the polls for each wait, and logs waits that are slow or time out.
+ *
+ * Example:
+ *    new Poller(20000).describedAs("file " + path).until(condition);
+ *
+ * @author mlabbe
+ *
+ */
+public class Poller {
+
+	/**
+	 * A condition to poll for.
+	 */
+	public interface Condition {
+		boolean check();
+	}
+
+	/**
+	 * The outcome of a wait.
+	 */
+	public static class Result {
+		private final boolean satisfied;
+		private final int polls;
+		private final long elapsedMillis;
+
+		private Result(boolean satisfied, int polls, long elapsedMillis) {
+			this.satisfied = satisfied;
+			this.polls = polls;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public boolean isSatisfied() {
+			return satisfied;
+		}
+
+		public int getPollCount() {
+			return polls;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+	}
+
+	public static final long defaultIntervalMillis = 100;
+	public static final long defaultMaxIntervalMillis = 1000;
+	public static final double defaultBackoff = 1.5;
+	public static final int defaultSlowPollCount = 10; // Waits taking more polls than this get logged
+
+	private final long timeoutMillis;
+	private long intervalMillis = defaultIntervalMillis;
+	private long maxIntervalMillis = defaultMaxIntervalMillis;
+	private double backoff = defaultBackoff;
+	private int slowPollCount = defaultSlowPollCount;
+	private String description = "condition";
+
+	/**
+	 * @param timeoutMillis		max milliseconds to wait
+	 */
+	public Poller(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * Sets the sleep before the second poll
+	 * @param intervalMillis		milliseconds
+	 * @return Poller		this poller
+	 */
+	public Poller withInterval(long intervalMillis) {
+		this.intervalMillis = intervalMillis;
+		return this;
+	}
+
+	/**
+	 * Sets the upper limit for the sleep between polls
+	 * @param maxIntervalMillis		milliseconds
+	 * @return Poller		this poller
+	 */
+	public Poller withMaxInterval(long maxIntervalMillis) {
+		this.maxIntervalMillis = maxIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * Sets the multiplier applied to the sleep after each poll. 1 for a fixed interval.
+	 * @param backoff		the multiplier
+	 * @return Poller		this poller
+	 */
+	public Poller withBackoff(double backoff) {
+		this.backoff = backoff;
+		return this;
+	}
+
+	/**
+	 * Sets the poll count above which a wait is logged as slow
+	 * @param slowPollCount		the poll count
+	 * @return Poller		this poller
+	 */
+	public Poller withSlowPollCount(int slowPollCount) {
+		this.slowPollCount = slowPollCount;
+		return this;
+	}
+
+	/**
+	 * Sets what is being waited on, for the log
+	 * @param description		the description
+	 * @return Poller		this poller
+	 */
+	public Poller describedAs(String description) {
+		this.description = description;
+		return this;
+	}
+
+	/**
+	 * Polls until the condition is true or the timeout is hit.
+	 * @param condition		the condition
+	 * @return boolean		true if the condition was met
+	 */
+	public boolean until(Condition condition) {
+		return poll(condition).isSatisfied();
+	}
+
+	/**
+	 * Polls until the condition is true or the timeout is hit.
+	 * @param condition		the condition
+	 * @return Result		whether the condition was met, the poll count and elapsed time
+	 */
+	public Result poll(Condition condition) {
+		long start = System.nanoTime();
+		long deadline = start + (timeoutMillis * 1000000L);
+		long sleepMillis = intervalMillis;
+		int polls = 0;
+		boolean satisfied = false;
+
+		while (true) {
+			polls++;
+			if (condition.check()) {
+				satisfied = true;
+				break;
+			}
+			long remainingMillis = (deadline - System.nanoTime()) / 1000000L;
+			if (remainingMillis <= 0) {
+				break;
+			}
+			try {
+				Thread.sleep(Math.min(sleepMillis, remainingMillis));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			sleepMillis = Math.min((long) (sleepMillis * backoff), maxIntervalMillis);
+		}
+
+		Result result = new Result(satisfied, polls, (System.nanoTime() - start) / 1000000L);
+		if (!satisfied || polls > slowPollCount) {
+			Reporter.log("-- Wait for " + description + (satisfied ? " met" : " TIMED OUT") + " after "
+					+ result.getPollCount() + " polls / " + result.getElapsedMillis() + "ms", true);
+		}
+		return result;
+	}
+}
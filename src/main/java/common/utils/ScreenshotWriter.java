@@ -0,0 +1,208 @@
+package common.utils;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.testng.Reporter;
+
+/**
+ * This class writes screenshots to disk in the background, so a failing test doesn't wait on disk I/O.
+ * - Tests capture the raw PNG bytes (OutputType.BYTES) and hand them over with write().
+ * - The file path is chosen up front, and returned through a Future once the file is written.
+ * - A bounded pool writes the files. When its queue is full, the test thread writes the file
+ *   itself (CallerRunsPolicy), so memory stays bounded when many asserts fail at once.
+ * - Screenshots can be scaled down (e.g. -Dscreenshot_scale_percent=50) to save disk space.
+ * - flush() waits for all pending files, and is called at the end of the suite.
+ *
+ * Pool size and queue size can be set with the 'screenshot_writer_threads' and
+ * 'screenshot_queue_size' system properties.
+ *
+ * @author mlabbe
+ *
+ */
+public class ScreenshotWriter {
+
+	public static final int defaultThreads = 2;
+	public static final int defaultQueueSize = 32;
+	public static final int defaultScalePercent = 100;
+	public static final long defaultFlushMillis = 60000;
+
+	private static final ScreenshotWriter instance = new ScreenshotWriter(
+			Integer.getInteger("screenshot_writer_threads", defaultThreads),
+			Integer.getInteger("screenshot_queue_size", defaultQueueSize),
+			Integer.getInteger("screenshot_scale_percent", defaultScalePercent));
+
+	private final ThreadPoolExecutor executor;
+	private final int scalePercent;
+	private final Object doneLock = new Object();
+	private long pending = 0; // Guarded by doneLock; handed over but not yet written
+
+	/**
+	 * @param threads		the number of writer threads
+	 * @param queueSize		max screenshots waiting to be written
+	 * @param scalePercent		the size to write screenshots at (100 for full size)
+	 */
+	public ScreenshotWriter(int threads, int queueSize, int scalePercent) {
+		this.scalePercent = scalePercent;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "screenshot-writer");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	public static ScreenshotWriter getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Writes a screenshot in the background
+	 * @param image		the PNG bytes
+	 * @param destFile		the file to write
+	 * @return Future		the full path of the file, once written
+	 */
+	public Future<String> write(final byte[] image, final File destFile) {
+		synchronized (doneLock) {
+			pending++;
+		}
+		try {
+			return executor.submit(new Callable<String>() {
+				@Override
+				public String call() {
+					try {
+						writeFile(image, destFile);
+					} catch (Exception e) {
+						Reporter.log("-- Screenshot NOT written: " + destFile + " - " + e.getMessage(), true);
+					} finally {
+						done();
+					}
+					return destFile.toString();
+				}
+			});
+		} catch (RuntimeException e) { // Rejected (shut down)
+			done();
+			Reporter.log("-- Screenshot NOT written: " + destFile + " - " + e.getMessage(), true);
+			return CompletableFuture.completedFuture(destFile.toString());
+		}
+	}
+
+	/**
+	 * Waits for all screenshots handed over so far to be written
+	 * @param timeoutMillis		max milliseconds to wait
+	 * @return boolean		true if all were written in time
+	 */
+	public boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (doneLock) {
+			while (pending > 0) {
+				long waitMillis = deadline - System.currentTimeMillis();
+				if (waitMillis <= 0) {
+					Reporter.log("-- " + pending + " screenshot(s) still being written", true);
+					return false;
+				}
+				try {
+					doneLock.wait(waitMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the path a Future resolves to, waiting for the file if needed
+	 * @param screenshot		the Future returned by write()
+	 * @return String		the full path of the screenshot, "" if it couldn't be written
+	 */
+	public static String getPath(Future<String> screenshot) {
+		if (screenshot == null) {
+			return "";
+		}
+		try {
+			return screenshot.get(defaultFlushMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			Reporter.log("-- Screenshot NOT available: " + e.getMessage(), true);
+		}
+		return "";
+	}
+
+	/**
+	 * Returns a hash of the screenshot bytes, to find identical screenshots
+	 * @param image		the PNG bytes
+	 * @return String		the SHA-1 of the bytes, in hex
+	 */
+	public static String getContentHash(byte[] image) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(image);
+			StringBuilder hash = new StringBuilder();
+			for (byte b : digest) {
+				hash.append(String.format("%02x", b));
+			}
+			return hash.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Always available
+		}
+	}
+
+	private void done() {
+		synchronized (doneLock) {
+			pending--;
+			if (pending == 0) {
+				doneLock.notifyAll();
+			}
+		}
+	}
+
+	private void writeFile(byte[] image, File destFile) throws IOException {
+		destFile.getParentFile().mkdirs();
+		Files.write(destFile.toPath(), (scalePercent > 0 && scalePercent < 100) ? scale(image) : image);
+	}
+
+	/*
+	 * Scales a PNG down to scalePercent of its size
+	 */
+	private byte[] scale(byte[] image) throws IOException {
+		BufferedImage original = ImageIO.read(new ByteArrayInputStream(image));
+		if (original == null) {
+			return image; // Not an image ImageIO can read: write as is
+		}
+		int width = Math.max(1, original.getWidth() * scalePercent / 100);
+		int height = Math.max(1, original.getHeight() * scalePercent / 100);
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = scaled.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.drawImage(original, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(scaled, "png", out);
+		return out.toByteArray();
+	}
+}
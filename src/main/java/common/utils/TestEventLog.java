@@ -0,0 +1,435 @@
+package common.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.testng.Reporter;
+
+/**
+ * This class records structured test events, and writes them in the background as JSON Lines
+ * (target/test-events.jsonl, one event per line). An HTML report is rendered from the file
+ * at the end of the suite (target/test-events.html).
+ * - Events are put in a fixed size ring buffer, without locks. Only the writer thread
+ *   formats them, so a test only pays for building the event.
+ * - If the buffer is full, the test waits for the writer to make room (nothing is dropped),
+ *   unless the writer thread died: then events are only echoed to the console.
+ * - If the file can't be written, the writer goes on echoing events to the console.
+ * - Events are also echoed to the console (except DRIVER_COMMAND events).
+ * - STEP, TEST_START and TEST_END lines also go to the TestNG Reporter, from the test
+ *   thread, so they stay in the ReportNG output of each test.
+ * - The writer thread sleeps while the buffer is empty, and is woken by the next event.
+ * - TEST_START and TEST_END mark the test of the current thread, and events in between carry its name.
+ *
+ * Example:
+ *    TestEventLog.getInstance().log(TestEventLog.Type.STEP, "Opened the login page", "url", url);
+ *
+ * The file and buffer size can be set with the 'test_event_file' and 'test_event_buffer_size'
+ * system properties.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestEventLog {
+
+	/**
+	 * The kinds of event
+	 */
+	public enum Type {
+		TEST_START, TEST_END, STEP, ASSERT_FAILURE, TESTRAIL_POST, DRIVER_COMMAND
+	}
+
+	/*
+	 * One event. The fields are alternating names and values.
+	 */
+	private static final class Event {
+		private final long sequence;
+		private final Type type;
+		private final long timeMillis;
+		private final String thread;
+		private final String test;
+		private final String message;
+		private final Object[] fields;
+
+		private Event(long sequence, Type type, String test, String message, Object[] fields) {
+			this.sequence = sequence;
+			this.type = type;
+			this.timeMillis = System.currentTimeMillis();
+			this.thread = Thread.currentThread().getName();
+			this.test = test;
+			this.message = message;
+			this.fields = fields;
+		}
+	}
+
+	public static final int defaultBufferSize = 8192;
+	public static final long defaultFlushMillis = 30000;
+	private static final long idleNanos = TimeUnit.MILLISECONDS.toNanos(5);
+
+	private static final TestEventLog instance = new TestEventLog(
+			new File(System.getProperty("test_event_file", System.getProperty("user.dir") + "/target/test-events.jsonl")),
+			Integer.getInteger("test_event_buffer_size", defaultBufferSize));
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				instance.flush(defaultFlushMillis);
+			}
+		}, "test-event-shutdown"));
+	}
+
+	private final File eventFile;
+	private final AtomicReferenceArray<Event> slots;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong(); // Next sequence to claim
+	private final AtomicLong tail = new AtomicLong(); // Next sequence to write
+	private volatile long flushed = 0; // Events written to disk
+	private volatile long flushRequested = 0; // Events flush() waits for
+	private volatile boolean writerWaiting = false; // Writer parked on an empty buffer
+	private final Object flushLock = new Object();
+	private final ThreadLocal<String> currentTest = new ThreadLocal<String>();
+	private final Thread writerThread;
+
+	/**
+	 * @param eventFile		the JSON Lines file (replaced)
+	 * @param bufferSize		the ring buffer size (rounded up to a power of 2)
+	 */
+	public TestEventLog(File eventFile, int bufferSize) {
+		this.eventFile = eventFile;
+		int capacity = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+		this.slots = new AtomicReferenceArray<Event>(capacity);
+		this.mask = capacity - 1;
+
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "test-event-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Returns the shared event log, writing to target/test-events.jsonl
+	 * @return TestEventLog		the event log
+	 */
+	public static TestEventLog getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Records the start of a test, for the current thread
+	 * @param test		the test name
+	 * @param fields		names and values (e.g. "env", env, "browser", browser)
+	 */
+	public void testStart(String test, Object... fields) {
+		currentTest.set(test);
+		publish(Type.TEST_START, null, fields);
+	}
+
+	/**
+	 * Records the end of the test of the current thread
+	 * @param test		the test name
+	 * @param fields		names and values (e.g. "result", "passed", "elapsed", time)
+	 */
+	public void testEnd(String test, Object... fields) {
+		currentTest.set(test);
+		publish(Type.TEST_END, null, fields);
+		currentTest.remove();
+	}
+
+	/**
+	 * Records an event, for the test of the current thread
+	 * @param type		the event type
+	 * @param message		the message (may be null)
+	 * @param fields		names and values
+	 */
+	public void log(Type type, String message, Object... fields) {
+		publish(type, message, fields);
+	}
+
+	/**
+	 * Waits for all events recorded so far to be written to disk
+	 * @param timeoutMillis		max milliseconds to wait
+	 * @return boolean		true if all were written in time
+	 */
+	public boolean flush(long timeoutMillis) {
+		long target = head.get();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (flushLock) {
+			if (flushRequested < target) {
+				flushRequested = target;
+			}
+		}
+		LockSupport.unpark(writerThread);
+		synchronized (flushLock) {
+			while (flushed < target) {
+				long waitMillis = deadline - System.currentTimeMillis();
+				if (waitMillis <= 0 || !writerThread.isAlive()) {
+					return false;
+				}
+				try {
+					flushLock.wait(Math.min(waitMillis, 100)); // Also re-checks that the writer is alive
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes all events so far, and renders them as an HTML report next to the event file
+	 * @return File		the HTML report
+	 */
+	public File writeReport() {
+		flush(defaultFlushMillis);
+		File htmlFile = new File(eventFile.getPath().replaceAll("\\.jsonl$", "") + ".html");
+		try {
+			renderHtml(eventFile, htmlFile);
+		} catch (Exception e) {
+			System.out.println("-- Test event report NOT written: " + e.getMessage());
+		}
+		return htmlFile;
+	}
+
+	private void publish(Type type, String message, Object[] fields) {
+		long sequence = head.getAndIncrement();
+		Event event = new Event(sequence, type, currentTest.get(), message, fields);
+		if (type == Type.STEP || type == Type.TEST_START || type == Type.TEST_END) {
+			reportStep(event);
+		}
+		// Full: wait for the writer to free this slot (its previous lap)
+		while (sequence - slots.length() >= tail.get()) {
+			if (!writerThread.isAlive()) { // Nobody will free it: console only
+				try {
+					if (type != Type.DRIVER_COMMAND) {
+						System.out.println(getText(event));
+					}
+				} catch (RuntimeException e) {
+					// nothing - dropped
+				}
+				return;
+			}
+			LockSupport.parkNanos(idleNanos);
+		}
+		slots.set((int) sequence & mask, event);
+		if (writerWaiting) {
+			LockSupport.unpark(writerThread);
+		}
+	}
+
+	/*
+	 * Adds the event line to the TestNG output of the current test (console echo is left to the writer)
+	 */
+	private static void reportStep(Event event) {
+		try {
+			Reporter.log(getText(event));
+		} catch (RuntimeException e) {
+			// nothing - the writer reports it
+		}
+	}
+
+	private void writeLoop() {
+		Writer out = openEventFile();
+		while (true) {
+			long next = tail.get();
+			int index = (int) next & mask;
+			Event event = slots.get(index);
+			if (event == null) {
+				if (flushed < next) {
+					out = flushOut(out, next);
+				}
+				// Sleep until an event (or a flush) comes in. Checked again after
+				// raising writerWaiting, so a producer can't slip in unseen.
+				writerWaiting = true;
+				if (slots.get(index) == null) {
+					if (flushRequested <= flushed) {
+						LockSupport.park(this);
+					} else {
+						LockSupport.parkNanos(idleNanos); // flush() waits for an event still being published
+					}
+				}
+				writerWaiting = false;
+				continue;
+			}
+			try {
+				String text = getText(event);
+				if (out != null) {
+					try {
+						out.write(toJson(event, text));
+						out.write('\n');
+					} catch (IOException e) {
+						out = stopWriting(out, e);
+					}
+				}
+				if (event.type != Type.DRIVER_COMMAND) {
+					System.out.println(text);
+				}
+			} catch (RuntimeException e) {
+				System.out.println("-- Test event NOT written (" + event.type + "): " + e);
+			}
+			slots.set(index, null);
+			tail.set(next + 1);
+			if (flushRequested > flushed && next + 1 >= flushRequested) {
+				out = flushOut(out, next + 1); // Don't make flush() wait for the buffer to empty
+			}
+		}
+	}
+
+	/*
+	 * Flushes the file, and wakes flush() callers. Returns the writer (null if it stopped).
+	 */
+	private Writer flushOut(Writer out, long written) {
+		if (out != null) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				out = stopWriting(out, e);
+			}
+		}
+		synchronized (flushLock) {
+			flushed = written;
+			flushLock.notifyAll();
+		}
+		return out;
+	}
+
+	/*
+	 * Opens the event file, null if it can't be (events then only go to the console)
+	 */
+	private Writer openEventFile() {
+		File parent = eventFile.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+		try {
+			return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(eventFile), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			System.out.println("-- Test event file NOT written (console only): " + e.getMessage());
+			return null;
+		}
+	}
+
+	private Writer stopWriting(Writer out, IOException e) {
+		System.out.println("-- Test event file stopped (console only): " + e.getMessage());
+		try {
+			out.close();
+		} catch (IOException ce) {
+			// nothing
+		}
+		return null;
+	}
+
+	/*
+	 * The readable text of an event, as it is shown on the console
+	 */
+	private static String getText(Event event) {
+		String comment = getField(event, "comment");
+		String test = event.test + ((comment == null || comment.isEmpty()) ? "" : " (" + comment + ")");
+		switch (event.type) {
+		case TEST_START:
+			return "*** START " + test + ":  " + getField(event, "env") + " / " + getField(event, "browser") + " / "
+					+ new SimpleDateFormat("MM/dd/yyyy HH:mm:ss").format(new Date(event.timeMillis));
+		case TEST_END:
+			return "**** END " + test + ": Result - " + getField(event, "result") + " / Timer - " + getField(event, "elapsed");
+		default:
+			if (event.message != null) {
+				return event.message;
+			}
+			StringBuilder text = new StringBuilder(event.type.name());
+			for (int i = 0; i + 1 < event.fields.length; i += 2) {
+				text.append(i == 0 ? ": " : ", ").append(event.fields[i]).append('=').append(event.fields[i + 1]);
+			}
+			return text.toString();
+		}
+	}
+
+	private static String getField(Event event, String name) {
+		for (int i = 0; i + 1 < event.fields.length; i += 2) {
+			if (name.equals(event.fields[i])) {
+				return String.valueOf(event.fields[i + 1]);
+			}
+		}
+		return null;
+	}
+
+	private static String toJson(Event event, String text) {
+		StringBuilder json = new StringBuilder(128);
+		json.append("{\"seq\":").append(event.sequence);
+		json.append(",\"time\":").append(event.timeMillis);
+		json.append(",\"type\":\"").append(event.type.name()).append('"');
+		json.append(",\"thread\":").append(JSONValue.toJSONString(event.thread));
+		json.append(",\"test\":").append(JSONValue.toJSONString(event.test));
+		json.append(",\"text\":").append(JSONValue.toJSONString(text));
+		json.append(",\"fields\":{");
+		for (int i = 0; i + 1 < event.fields.length; i += 2) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append(JSONValue.toJSONString(String.valueOf(event.fields[i]))).append(':');
+			Object value = event.fields[i + 1];
+			json.append((value instanceof Number || value instanceof Boolean) ? value.toString() : JSONValue.toJSONString(String.valueOf(value)));
+		}
+		return json.append("}}").toString();
+	}
+
+	/**
+	 * Renders a JSON Lines event file as an HTML table
+	 * @param eventFile		the event file
+	 * @param htmlFile		the HTML file to write
+	 * @throws Exception		on read/write errors
+	 */
+	public static void renderHtml(File eventFile, File htmlFile) throws Exception {
+		JSONParser parser = new JSONParser();
+		SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(eventFile), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(htmlFile), StandardCharsets.UTF_8))) {
+			out.write("<html><head><meta charset=\"UTF-8\"><title>Test Events</title><style>"
+					+ "body{font-family:sans-serif;font-size:12px}td{padding:2px 6px;vertical-align:top}"
+					+ ".TEST_START td{border-top:1px solid #999;font-weight:bold}.ASSERT_FAILURE{color:red}"
+					+ ".FAILED{color:red;font-weight:bold}.TESTRAIL_POST{color:#666}.DRIVER_COMMAND{color:#999}"
+					+ "</style></head><body><table>\n<tr><th>Time</th><th>Thread</th><th>Test</th><th>Event</th><th>Text</th></tr>\n");
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				JSONObject event = (JSONObject) parser.parse(line);
+				JSONObject fields = (JSONObject) event.get("fields");
+				String type = String.valueOf(event.get("type"));
+				String rowClass = ("FAILED".equals(fields.get("result"))) ? type + " FAILED" : type;
+				out.write("<tr class=\"" + rowClass + "\"><td>" + timeFormat.format(new Date(((Number) event.get("time")).longValue()))
+						+ "</td><td>" + escapeHtml(event.get("thread")) + "</td><td>" + escapeHtml(event.get("test"))
+						+ "</td><td>" + type + "</td><td>" + escapeHtml(event.get("text")) + "</td></tr>\n");
+			}
+			out.write("</table></body></html>\n");
+		}
+	}
+
+	private static String escapeHtml(Object value) {
+		if (value == null) {
+			return "";
+		}
+		return value.toString().replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+}
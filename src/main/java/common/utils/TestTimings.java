@@ -0,0 +1,266 @@
+package common.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.testng.Reporter;
+
+/**
+ * This class records how long each test method takes, and keeps a history of it.
+ * - Durations are added up per test method during the run (data driven tests run several times).
+ * - At the end of the suite, they are merged into the timings file, smoothed with the previous runs.
+ * - The timings file also keeps the TestRail case IDs of each method.
+ * - Forked JVMs can save into the same file: the merge holds a lock file
+ *   (test-timings.json.lock), and the file is written to a temp file then renamed,
+ *   so a reader never sees half a file.
+ * - Timings of test methods that no longer exist (deleted or renamed) are dropped
+ *   when loaded, and pruned from the file when saved.
+ * Used by CreateTestRailSuite to order and shard suites.
+ *
+ * The timings file is 'target/test-timings.json', overridable with the 'test_timings_file' system property.
+ * Keep it between builds (e.g. as a build artifact) for the history to build up.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestTimings {
+
+	/**
+	 * The recorded timing of a test method.
+	 */
+	public static class Timing {
+		private final String className;
+		private final String methodName;
+		private final long millis;
+		private final Set<Long> testCases;
+
+		public Timing(String className, String methodName, long millis, Set<Long> testCases) {
+			this.className = className;
+			this.methodName = methodName;
+			this.millis = millis;
+			this.testCases = Collections.unmodifiableSet(testCases);
+		}
+
+		public String getClassName() {
+			return className;
+		}
+
+		public String getMethodName() {
+			return methodName;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public Set<Long> getTestCases() {
+			return testCases;
+		}
+	}
+
+	private static final double smoothing = 0.5; // Weight of the latest run
+	private static final TestTimings instance = new TestTimings();
+
+	private final ConcurrentHashMap<String, Timing> recorded = new ConcurrentHashMap<String, Timing>();
+
+	private TestTimings() {
+	}
+
+	public static TestTimings getInstance() {
+		return instance;
+	}
+
+	public static File getTimingsFile() {
+		return new File(System.getProperty("test_timings_file", System.getProperty("user.dir") + "/target/test-timings.json"));
+	}
+
+	/**
+	 * Adds a test method run
+	 * @param className		the test class
+	 * @param methodName		the test method
+	 * @param testCases		the TestRail case IDs (or null)
+	 * @param millis		the duration
+	 */
+	public void record(String className, String methodName, Long[] testCases, long millis) {
+		String key = className + "#" + methodName;
+		Set<Long> cases = new LinkedHashSet<Long>();
+		if (testCases != null) {
+			Collections.addAll(cases, testCases);
+		}
+		while (true) {
+			Timing previous = recorded.get(key);
+			if (previous == null) {
+				if (recorded.putIfAbsent(key, new Timing(className, methodName, millis, cases)) == null) {
+					return;
+				}
+			} else {
+				cases.addAll(previous.getTestCases());
+				if (recorded.replace(key, previous, new Timing(className, methodName, previous.getMillis() + millis, cases))) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges the timings of this run into the timings file
+	 */
+	public synchronized void save() {
+		if (recorded.isEmpty()) {
+			return;
+		}
+		File file = getTimingsFile();
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		File lockFile = new File(file.getPath() + ".lock");
+		try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock lock = lockChannel.lock()) {
+			merge(file);
+		} catch (IOException e) {
+			Reporter.log("-- TestTimings: could not lock " + lockFile.getPath() + ": " + e.getMessage(), true);
+		}
+	}
+
+	/*
+	 * Merges the recorded timings into the file. Called holding the file lock.
+	 */
+	private void merge(File file) {
+		Map<String, Timing> timings = load(file);
+		for (Map.Entry<String, Timing> run : recorded.entrySet()) {
+			Timing current = run.getValue();
+			Timing previous = timings.get(run.getKey());
+			long millis = current.getMillis();
+			if (previous != null) {
+				millis = Math.round((smoothing * millis) + ((1 - smoothing) * previous.getMillis()));
+			}
+			timings.put(run.getKey(), new Timing(current.getClassName(), current.getMethodName(), millis, current.getTestCases()));
+		}
+		recorded.clear();
+		int pruned = 0;
+		for (Iterator<Timing> timing = timings.values().iterator(); timing.hasNext();) {
+			if (!exists(timing.next())) {
+				timing.remove();
+				pruned++;
+			}
+		}
+		if (pruned > 0) {
+			Reporter.log("-- TestTimings: pruned " + pruned + " timing(s) of test methods that no longer exist", true);
+		}
+		write(file, timings);
+	}
+
+	/**
+	 * Reads the timings file
+	 * @return List		the timings (empty if there is no file yet)
+	 */
+	public static List<Timing> load() {
+		List<Timing> timings = new ArrayList<Timing>();
+		for (Timing timing : load(getTimingsFile()).values()) {
+			if (exists(timing)) {
+				timings.add(timing);
+			} else {
+				Reporter.log("-- TestTimings: ignoring " + timing.getClassName() + "#" + timing.getMethodName() + " (no longer exists)", true);
+			}
+		}
+		return timings;
+	}
+
+	/*
+	 * True if the test method is still on the classpath
+	 */
+	private static boolean exists(Timing timing) {
+		try {
+			Class<?> testClass = Class.forName(timing.getClassName(), false, TestTimings.class.getClassLoader());
+			for (Method method : testClass.getMethods()) {
+				if (method.getName().equals(timing.getMethodName())) {
+					return true;
+				}
+			}
+		} catch (ClassNotFoundException | LinkageError e) {
+			// nothing - deleted or renamed
+		}
+		return false;
+	}
+
+	private static Map<String, Timing> load(File file) {
+		Map<String, Timing> timings = new HashMap<String, Timing>();
+		if (!file.exists()) {
+			return timings;
+		}
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			JSONObject tests = (JSONObject) ((JSONObject) new JSONParser().parse(reader)).get("tests");
+			for (Object key : tests.keySet()) {
+				JSONObject test = (JSONObject) tests.get(key);
+				Set<Long> cases = new LinkedHashSet<Long>();
+				for (Object testCase : (JSONArray) test.get("cases")) {
+					cases.add(((Number) testCase).longValue());
+				}
+				timings.put((String) key, new Timing((String) test.get("class"), (String) test.get("method"),
+						((Number) test.get("millis")).longValue(), cases));
+			}
+		} catch (Exception e) {
+			Reporter.log("-- TestTimings: ignoring unreadable " + file.getPath() + ": " + e.getMessage(), true);
+			timings.clear();
+		}
+		return timings;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void write(File file, Map<String, Timing> timings) {
+		JSONObject tests = new JSONObject();
+		for (Map.Entry<String, Timing> timing : timings.entrySet()) {
+			JSONObject test = new JSONObject();
+			test.put("class", timing.getValue().getClassName());
+			test.put("method", timing.getValue().getMethodName());
+			test.put("millis", timing.getValue().getMillis());
+			JSONArray cases = new JSONArray();
+			cases.addAll(timing.getValue().getTestCases());
+			test.put("cases", cases);
+			tests.put(timing.getKey(), test);
+		}
+		JSONObject root = new JSONObject();
+		root.put("tests", tests);
+
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		File tempFile = new File(file.getPath() + "." + System.nanoTime() + ".tmp");
+		try {
+			try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+				root.writeJSONString(writer);
+			}
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (Exception e) {
+			Reporter.log("-- TestTimings: could not write " + file.getPath() + ": " + e.getMessage(), true);
+		} finally {
+			tempFile.delete();
+		}
+	}
+}
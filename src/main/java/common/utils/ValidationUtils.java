@@ -7,9 +7,12 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 
-import org.apache.commons.io.FileUtils;
 import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
@@ -18,7 +21,6 @@ import org.openqa.selenium.remote.RemoteWebDriver;
 import org.testng.Reporter;
 import org.testng.asserts.IAssert;
 import org.testng.asserts.SoftAssert;
-import org.testng.collections.Maps;
 
 import common.env.TestProperties;
 import common.testrail.TestRail;
@@ -41,17 +43,29 @@ public class ValidationUtils extends SoftAssert implements TestProperties {
 			EN, ES
 	}
 
-	@SuppressWarnings("rawtypes")
-	private Map<AssertionError, IAssert> m_errors = Maps.newHashMap();
+	/*
+	 * A failed soft assert: the error, where the test called it from, and its screenshot
+	 */
+	private static final class AssertFailure {
+		private final AssertionError error;
+		private final StackTraceElement callerFrame; // null if not called from a test class
+		private final String imageName;
+		private final Future<String> imagePath;
+
+		private AssertFailure(AssertionError error, StackTraceElement callerFrame, String imageName, Future<String> imagePath) {
+			this.error = error;
+			this.callerFrame = callerFrame;
+			this.imageName = imageName;
+			this.imagePath = imagePath;
+		}
+	}
+
+	// Failed soft asserts, in the order they failed
+	private final Queue<AssertFailure> m_failures = new ConcurrentLinkedQueue<AssertFailure>();
 	ArrayList<Object> g_errors = new ArrayList<Object>();
 
 	// Screenshot related
-	private String imageFileName;
-	private String stackClassName;
-	private String stackMethodName;
-	private int stackLineNum;
-	private Map<AssertionError, String> imagePathList = Maps.newHashMap();
-	private Map<AssertionError, String> imageNameList = Maps.newHashMap();
+	private Map<String, Future<String>> imageHashList = new ConcurrentHashMap<String, Future<String>>(); // Content hash -> screenshot
 	protected static final String screenshotFileLocation = "target/screenshots/";
 	public String screenshotAdditionalData = "";
 
@@ -84,7 +98,6 @@ public class ValidationUtils extends SoftAssert implements TestProperties {
 			executeAssert(assertCommand);
 			onAssertSuccess(assertCommand);
 		} catch (AssertionError ex) {
-			m_errors.put(ex, assertCommand);
 			onAssertFailure(assertCommand, ex);
 		} finally {
 			onAfterAssert(assertCommand);
@@ -115,18 +128,17 @@ public class ValidationUtils extends SoftAssert implements TestProperties {
 	 * @throws Exception
 	 * 		throws exception
 	 */
-	@SuppressWarnings("rawtypes")
 	public boolean assertAll(Long[] testCases, String comment) throws Exception {
 		boolean returnPassed = true;
 		Integer testRailStatus = -1;
 		String testRailComment = "";
 		
-		if (!m_errors.isEmpty()) {
+		if (!m_failures.isEmpty()) {
 			returnPassed = false;
 			StringBuilder sb = new StringBuilder("The following asserts failed:");
 			boolean first = true;
 	      			
-			for (Entry<AssertionError, IAssert> ae : m_errors.entrySet()) {
+			for (AssertFailure failure : m_failures) {
 				String myClass = "";
 				String myMethod = "";
 				int myLineNum = 0;
@@ -140,22 +152,20 @@ public class ValidationUtils extends SoftAssert implements TestProperties {
 				// New Line
 				sb.append("\n\t");
 
-				// Log the Class, Method, Line# from the stacktrace
-				for (StackTraceElement line : ae.getKey().getStackTrace()) {
-					if (line.getClassName().startsWith("web.prismhr") && !line.getClassName().contains("common")) {
-						myClass = line.getClassName();
-						myMethod = line.getMethodName();
-						myLineNum = line.getLineNumber();
-					}
+				// Log the Class, Method, Line# of the test
+				if (failure.callerFrame != null) {
+					myClass = failure.callerFrame.getClassName();
+					myMethod = failure.callerFrame.getMethodName();
+					myLineNum = failure.callerFrame.getLineNumber();
 				}
 
 				Reporter.log("<br>"); // Set new line between each error
 				// Log Screenshot
-				logScreenshot(imageNameList.get(ae.getKey()), imagePathList.get(ae.getKey()));				
+				logScreenshot(failure.imageName, ScreenshotWriter.getPath(failure.imagePath));
 				
 				// Log Error
-				Reporter.log("<br><font color=\"red\">"+ae.getKey().getMessage()+"</font>");
-				sb.append(ae.getKey().getMessage());				
+				Reporter.log("<br><font color=\"red\">"+failure.error.getMessage()+"</font>");
+				sb.append(failure.error.getMessage());				
 				Reporter.log("<br><font color=\"green\">Class: " + myClass + " Test Case: " + myMethod + " Line: " + myLineNum + "</font>");
 			}
 			//** Set TestRail status as failed
@@ -220,48 +230,93 @@ public class ValidationUtils extends SoftAssert implements TestProperties {
 	 */
 	@Override
 	public void onAssertFailure(IAssert<?> a, AssertionError ex) {
-		m_errors.put(ex, a);
-		
-		for (StackTraceElement line : ex.getStackTrace()) {
-			if (line.getClassName().startsWith("web.prismhr") && !line.getClassName().contains("common")) {
-				stackClassName = line.getClassName();
-				stackMethodName = line.getMethodName();
-				stackLineNum = line.getLineNumber();
-			}
-		}
-		imageFileName = stackMethodName + "-Line" + stackLineNum;
+		// Resolve the test's frame once
+		StackTraceElement callerFrame = findCallerFrame(ex);
+		String imageFileName = (callerFrame != null) ? callerFrame.getMethodName() + "-Line" + callerFrame.getLineNumber() : "null-Line0";
 		if (!screenshotAdditionalData.isEmpty()) {
 			imageFileName = imageFileName + "-" + screenshotAdditionalData;
 		}
-		String imagePath = captureScreenshot(imageFileName);
-		System.out.println("IMAGE FILE: '"+imagePath+"'");
-		imagePathList.put(ex, imagePath);
-		imageNameList.put(ex, imageFileName);
+		Future<String> imagePath = captureScreenshotAsync(imageFileName); // Written in the background
+		m_failures.add(new AssertFailure(ex, callerFrame, imageFileName, imagePath));
+		TestEventLog.getInstance().log(TestEventLog.Type.ASSERT_FAILURE, null, "message", ex.getMessage(),
+				"frame", callerFrame, "screenshot", imageFileName);
 		super.onAssertFailure(a, ex);
 	}
+	/*
+	 * Returns the outermost test class frame (web.prismhr, not common) of an error, or null.
+	 * The stack is walked once, from the outermost frame in, stopping at the first match.
+	 */
+	private static StackTraceElement findCallerFrame(Throwable t) {
+		StackTraceElement[] stack = t.getStackTrace();
+		for (int i = stack.length - 1; i >= 0; i--) {
+			String className = stack[i].getClassName();
+			if (className.startsWith("web.prismhr") && !className.contains("common")) {
+				return stack[i];
+			}
+		}
+		return null;
+	}
+
 	/**
-	 * Capture a screenshot, and save to relative path for the ReportNG results
+	 * Capture a screenshot, and save to relative path for the ReportNG results.
+	 * The file is written in the background (see ScreenshotWriter).
 	 * @param fileName
 	 * 		name of file to save screenshot to
 	 * @return String
 	 * 		returns full path of the captured image file
 	 */
 	public String captureScreenshot(String fileName) {
-		String imagePath = "";
-		try {
-			String userDirectory = System.getProperty("user.dir") + "/";
-			File destFile = new File(userDirectory+screenshotFileLocation+fileName+"-"+(new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()))+".png");
-			imagePath = destFile.toString();
-			File imageFile = null;
-			
-			imageFile = ((TakesScreenshot)getDriver()).getScreenshotAs(OutputType.FILE);
-			
+		File destFile = getScreenshotFile(fileName);
+		captureScreenshot(destFile);
+		return destFile.toString(); // Return the full path to the screenshot file
+	}
+
+	/**
+	 * Capture a screenshot, and hand it to the ScreenshotWriter to be saved
+	 * to relative path for the ReportNG results.
+	 * A screenshot identical to one already taken by this instance is not
+	 * written again: the earlier file is returned.
+	 * @param fileName
+	 * 		name of file to save screenshot to
+	 * @return Future
+	 * 		the full path of the captured image file, once written
+	 */
+	public Future<String> captureScreenshotAsync(String fileName) {
+		File destFile = getScreenshotFile(fileName);
+		byte[] image = takeScreenshot();
+		if (image == null) {
+			return CompletableFuture.completedFuture(destFile.toString());
+		}
+		// Same page as an earlier failure: share its file
+		String imageHash = ScreenshotWriter.getContentHash(image);
+		Future<String> imagePath = imageHashList.get(imageHash);
+		if (imagePath == null) {
+			imagePath = ScreenshotWriter.getInstance().write(image, destFile);
+			imageHashList.put(imageHash, imagePath);
+		}
+		return imagePath;
+	}
+
+	private void captureScreenshot(File destFile) {
+		byte[] image = takeScreenshot();
+		if (image != null) {
 			// Save Screenshot to results folder
-			FileUtils.copyFile(imageFile, destFile);
+			ScreenshotWriter.getInstance().write(image, destFile);
+		}
+	}
+
+	private byte[] takeScreenshot() {
+		try {
+			return ((TakesScreenshot)getDriver()).getScreenshotAs(OutputType.BYTES);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
-		return imagePath; // Return the full path to the screenshot file
+		return null;
+	}
+
+	private File getScreenshotFile(String fileName) {
+		String userDirectory = System.getProperty("user.dir") + "/";
+		return new File(userDirectory+screenshotFileLocation+fileName+"-"+(new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()))+".png");
 	}
 	
 	/**
@@ -0,0 +1,104 @@
+package common.data.dataprovider;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.beanutils.BeanUtils;
+import org.testng.Assert;
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+import common.data.beans.SampleDataBean;
+
+/**
+ * This class checks that BeanBinder fills data beans the same as BeanUtils.populate
+ * (the way YamlDataProvider filled them before), and compares how long each takes
+ * (no TestRail or browser needed):
+ *    mvn test -DsuiteFile=Data_TestSuite.xml
+ *
+ * The timings are logged, not asserted, as wall clock times are too noisy
+ * on a shared build agent to fail a build on.
+ *
+ * @author mlabbe
+ *
+ */
+public class BeanBinderTest {
+
+	private static final int warmupBinds = 20000;
+	private static final int binds = 200000;
+
+	private static final BeanBinder.BeanResolver noNestedBeans = new BeanBinder.BeanResolver() {
+		@Override
+		public Object resolve(Class<?> clazz, String id) throws Exception {
+			throw new IllegalStateException("No nested bean expected: " + clazz.getName() + " " + id);
+		}
+	};
+
+	@Test
+	public void bindsLikeBeanUtilsPopulate() throws Exception {
+		for (Map<String, Object> map : getSampleData()) {
+			SampleDataBean bound = BeanBinder.forClass(SampleDataBean.class).bind(map, noNestedBeans);
+			SampleDataBean populated = populate(map);
+			Assert.assertEquals(bound.getItem1(), populated.getItem1(), "item1 of " + map);
+			Assert.assertEquals(bound.getItem2(), populated.getItem2(), "item2 of " + map);
+		}
+	}
+
+	@Test
+	public void timesBindAgainstBeanUtilsPopulate() throws Exception {
+		List<Map<String, Object>> data = getSampleData();
+		BeanBinder<SampleDataBean> binder = BeanBinder.forClass(SampleDataBean.class);
+		long checksum = 0;
+		for (int i = 0; i < warmupBinds; i++) {
+			Map<String, Object> map = data.get(i % data.size());
+			checksum += binder.bind(map, noNestedBeans).hashCode() & 1;
+			checksum += populate(map).hashCode() & 1;
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < binds; i++) {
+			checksum += binder.bind(data.get(i % data.size()), noNestedBeans).hashCode() & 1;
+		}
+		long binderNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < binds; i++) {
+			checksum += populate(data.get(i % data.size())).hashCode() & 1;
+		}
+		long populateNanos = System.nanoTime() - start;
+
+		Reporter.log(String.format("-- SampleDataBean, %d binds: BeanBinder %.0f ns/bind, BeanUtils.populate %.0f ns/bind (%.1fx) [%d]",
+				binds, (double) binderNanos / binds, (double) populateNanos / binds, (double) populateNanos / binderNanos, checksum), true);
+	}
+
+	/*
+	 * The documents of sampledata.yaml, and the edge cases of a test data map
+	 */
+	private static List<Map<String, Object>> getSampleData() {
+		List<Map<String, Object>> data = new ArrayList<Map<String, Object>>();
+		data.add(map("id", "default", "item1", "env1Value1", "item2", "env1Value2"));
+		data.add(map("id", "one", "item1", "env1NewValue1", "item2", "env1NewValue2"));
+		data.add(map("id", "numbers", "item1", 42, "item2", 1.5)); // YAML numbers, converted to String
+		data.add(map("id", "empty", "item1", "", "item2", null));
+		data.add(map("id", "partial", "item2", "onlyItem2", "unknown", "ignored"));
+		return data;
+	}
+
+	private static Map<String, Object> map(Object... keyValues) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < keyValues.length; i += 2) {
+			map.put((String) keyValues[i], keyValues[i + 1]);
+		}
+		return map;
+	}
+
+	/*
+	 * The BeanUtils.populate path YamlDataProvider used before BeanBinder
+	 */
+	private static SampleDataBean populate(Map<String, Object> map) throws Exception {
+		SampleDataBean bean = new SampleDataBean();
+		BeanUtils.populate(bean, map);
+		return bean;
+	}
+}
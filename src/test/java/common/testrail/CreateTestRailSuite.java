@@ -3,16 +3,25 @@ package common.testrail;
 import java.io.File;
 import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.json.simple.JSONObject;
 import org.testng.Reporter;
 import org.testng.annotations.Parameters;
 import org.testng.annotations.Test;
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlInclude;
 import org.testng.xml.XmlPackage;
 import org.testng.xml.XmlSuite;
 import org.testng.xml.XmlTest;
 
+import common.testrail.SuiteShardPlanner.Shard;
+import common.utils.TestTimings;
+import common.utils.TestTimings.Timing;
+
 
 /**
  * This class contains a main @Test method that will read a specific TestRail
@@ -21,12 +30,18 @@ import org.testng.xml.XmlTest;
  * 
  * This new xml suite file can then be triggered in a Bamboo config to
  * 
+ * With 'shard_count' > 1, the run is split into that many suite files
+ * (TRRun-shard1.xml, ...), balanced on the test durations recorded by
+ * previous runs (see TestTimings and SuiteShardPlanner), one per agent/grid node.
+ * Tests are ordered longest first. 'suite_thread_count' sets the threads per suite.
+ * 
  * @author mlabbe
  *
  */
 public class CreateTestRailSuite {
 
-	int parallelThreadCount = 5;
+	int parallelThreadCount = Integer.getInteger("suite_thread_count", 5);
+	int shardCount = Math.max(1, Integer.getInteger("shard_count", 1));
 
 	@Parameters({ "testrail_id" })
 	@Test
@@ -56,48 +71,101 @@ public class CreateTestRailSuite {
 			// Fetch Automated tests from TestRail run
 			Reporter.log("-- Fetching Automated Tests from TestRail Run", true);
 			ArrayList<String> runTestCaseIdList = testRailAPI.getRunTestIds(runID);
+			Map<Long, JSONObject> runTestCases = testRailAPI.getRunTestCases(runID, runTestCaseIdList);
 			for (String singleId : runTestCaseIdList) {
-				JSONObject thisCase = testRailAPI.getTestCase(singleId);
+				JSONObject thisCase = runTestCases.get(Long.parseLong(singleId));
+				if (thisCase == null) {
+					Reporter.log("-- Skipping Test Case " + singleId + " (NOT fetched from TestRail)", true);
+					continue;
+				}
 				if (String.valueOf((long) thisCase.get("custom_executionmethod")).equals(automatedStatus)
 						|| String.valueOf((long) thisCase.get("custom_executionmethod")).equals(automatedNeedsUpdateStatus)) {
 					testIds.add(singleId);
 				}
 			}
 
-			Reporter.log("-- Building XML File", true);
-			// Build Packages
+			// Split into shards, from the recorded test durations
+			List<Timing> timings = TestTimings.load();
+			Reporter.log("-- Planning " + shardCount + " shard(s) from " + timings.size() + " recorded test timings", true);
+			List<Shard> shards = new SuiteShardPlanner(timings).plan(testIds, shardCount);
+
+			for (int i = 0; i < shards.size(); i++) {
+				Shard shard = shards.get(i);
+				String suiteName = "Suite for TestRail Run " + runID;
+				String fileName = System.getProperty("user.dir") + "/src/test/resources/Common_suites/TRRun.xml";
+				if (shards.size() > 1) {
+					suiteName = suiteName + " - Shard " + (i + 1) + " of " + shards.size();
+					fileName = System.getProperty("user.dir") + "/src/test/resources/Common_suites/TRRun-shard" + (i + 1) + ".xml";
+				}
+				Reporter.log("-- Building XML File: " + suiteName + " (" + shard.getMethods().size() + " timed methods, "
+						+ shard.getUntimedCases().size() + " untimed cases, ~" + (shard.getEstimatedMillis() / 1000) + "s)", true);
+				XmlSuite suite = buildSuite(suiteName, shard, listeners);
+
+				// Write XML file
+				Reporter.log("-- Writing out XML file to '" + fileName + "'", true);
+				FileWriter writer = new FileWriter(new File(fileName));
+				writer.write(suite.toXml());
+				writer.flush();
+				writer.close();
+			}
+		} catch (Exception e) {
+			throw (e);
+		}
+	}
+
+	/*
+	 * Builds the suite of one shard:
+	 * - the timed methods, by class and method, longest first (preserve-order)
+	 * - every case of the shard, by group, so methods with no recorded timing run too.
+	 *   The timed methods are excluded there, so they don't run twice.
+	 */
+	private XmlSuite buildSuite(String suiteName, Shard shard, List<String> listeners) {
+		XmlSuite suite = new XmlSuite();
+		suite.setName(suiteName);
+		suite.setParallel(XmlSuite.ParallelMode.METHODS);
+		suite.setThreadCount(parallelThreadCount);
+		suite.setListeners(listeners);
+
+		Map<String, XmlClass> classes = new LinkedHashMap<String, XmlClass>();
+		Map<String, XmlClass> groupedClasses = new LinkedHashMap<String, XmlClass>();
+		if (!shard.getMethods().isEmpty()) {
+			for (Timing timing : shard.getMethods()) {
+				XmlClass xmlClass = classes.get(timing.getClassName());
+				if (xmlClass == null) {
+					xmlClass = new XmlClass(timing.getClassName(), false);
+					classes.put(timing.getClassName(), xmlClass);
+					groupedClasses.put(timing.getClassName(), new XmlClass(timing.getClassName(), false));
+				}
+				xmlClass.getIncludedMethods().add(new XmlInclude(timing.getMethodName()));
+				groupedClasses.get(timing.getClassName()).getExcludedMethods().add(timing.getMethodName());
+			}
+			XmlTest test = new XmlTest(suite);
+			test.setName(suiteName + " - Timed");
+			test.setPreserveOrder("true");
+			test.setXmlClasses(new ArrayList<XmlClass>(classes.values()));
+		}
+
+		if (!shard.getCases().isEmpty()) {
+			// Build Packages (the timed classes are listed on their own, without their timed methods)
 			XmlPackage myPackage = new XmlPackage();
 			myPackage.setName("web.prismhr.*");
+			for (String className : groupedClasses.keySet()) {
+				myPackage.getExclude().add(Pattern.quote(className));
+			}
 			List<XmlPackage> packageList = new ArrayList<XmlPackage>();
 			packageList.add(myPackage);
 
-			// Build Suite
-			XmlSuite suite = new XmlSuite();
-			suite.setName("Suite for TestRail Run " + runID);
-			suite.setParallel(XmlSuite.ParallelMode.METHODS);
-			suite.setThreadCount(parallelThreadCount);
-			suite.setListeners(listeners);
-
-			// Build Test
-			XmlTest test = new XmlTest();
-			test.setName("Suite for TestRail Run " + runID);
-			for (String oneId : testIds) {
+			XmlTest test = new XmlTest(suite);
+			test.setName(shard.getMethods().isEmpty() ? suiteName : suiteName + " - Grouped");
+			for (String oneId : shard.getCases()) {
 				test.addIncludedGroup(oneId);
 			}
 			test.setPackages(packageList);
-			suite.addTest(test);
-			test.setSuite(suite);
-
-			// Write XML file
-			String fileName = System.getProperty("user.dir") + "/src/test/resources/Common_suites/TRRun.xml";
-			Reporter.log("-- Writing out XML file to '" + fileName + "'", true);
-			FileWriter writer = new FileWriter(new File(fileName));
-			writer.write(suite.toXml());
-			writer.flush();
-			writer.close();
-		} catch (Exception e) {
-			throw (e);
+			if (!groupedClasses.isEmpty()) {
+				test.setXmlClasses(new ArrayList<XmlClass>(groupedClasses.values()));
+				test.setPreserveOrder("false"); // TestNG 6.9 can't order packages and classes together
+			}
 		}
+		return suite;
 	}
-
 }
@@ -0,0 +1,219 @@
+package common.testrail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import common.utils.TestTimings.Timing;
+
+/**
+ * This class splits the test cases of a TestRail run into balanced shards,
+ * using the recorded test durations (TestTimings).
+ * - Test methods are grouped into units: methods that share a test case stay together,
+ *   so a method tagged with several cases is run once, in one shard.
+ * - Cases with no recorded method are their own unit, with an estimated duration
+ *   (the median of the recorded methods).
+ * - Units are assigned longest first, each to the shard with the least work so far
+ *   (longest processing time first), so the shards finish at about the same time.
+ * - Within a shard, methods are ordered longest first.
+ * - Each shard also lists all its cases, so methods with no recorded timing (new, or not
+ *   run yet) still run, by group, in the shard that has their case.
+ *
+ * @author mlabbe
+ *
+ */
+public class SuiteShardPlanner {
+
+	public static final long defaultCaseMillis = 60000;
+
+	/**
+	 * The tests of one shard.
+	 */
+	public static class Shard {
+		private final List<Timing> methods = new ArrayList<Timing>();
+		private final List<String> cases = new ArrayList<String>();
+		private final List<String> untimedCases = new ArrayList<String>();
+		private long estimatedMillis = 0;
+
+		/**
+		 * @return List		the recorded test methods, longest first
+		 */
+		public List<Timing> getMethods() {
+			return methods;
+		}
+
+		/**
+		 * @return List		all the case IDs of the shard (timed or not)
+		 */
+		public List<String> getCases() {
+			return cases;
+		}
+
+		/**
+		 * @return List		the case IDs with no recorded test method
+		 */
+		public List<String> getUntimedCases() {
+			return untimedCases;
+		}
+
+		public long getEstimatedMillis() {
+			return estimatedMillis;
+		}
+	}
+
+	/*
+	 * Methods and cases that have to run in the same shard
+	 */
+	private static class Unit {
+		private final List<Timing> methods = new ArrayList<Timing>();
+		private final Set<String> cases = new LinkedHashSet<String>();
+		private final List<String> untimedCases = new ArrayList<String>();
+		private long millis = 0;
+	}
+
+	private final List<Timing> timings;
+
+	/**
+	 * @param timings		the recorded test durations
+	 */
+	public SuiteShardPlanner(List<Timing> timings) {
+		this.timings = timings;
+	}
+
+	/**
+	 * Splits the given cases into shards
+	 * @param caseIDs		the case IDs to run
+	 * @param shardCount		the number of shards
+	 * @return List		the shards (some may be empty if there are fewer units than shards)
+	 */
+	public List<Shard> plan(List<String> caseIDs, int shardCount) {
+		List<Unit> units = buildUnits(caseIDs);
+		Collections.sort(units, new Comparator<Unit>() {
+			@Override
+			public int compare(Unit a, Unit b) {
+				return Long.compare(b.millis, a.millis);
+			}
+		});
+
+		List<Shard> shards = new ArrayList<Shard>();
+		PriorityQueue<Shard> byLoad = new PriorityQueue<Shard>(Math.max(1, shardCount), new Comparator<Shard>() {
+			@Override
+			public int compare(Shard a, Shard b) {
+				return Long.compare(a.estimatedMillis, b.estimatedMillis);
+			}
+		});
+		for (int i = 0; i < Math.max(1, shardCount); i++) {
+			Shard shard = new Shard();
+			shards.add(shard);
+			byLoad.add(shard);
+		}
+		for (Unit unit : units) {
+			Shard shard = byLoad.poll();
+			shard.methods.addAll(unit.methods);
+			shard.cases.addAll(unit.cases);
+			shard.untimedCases.addAll(unit.untimedCases);
+			shard.estimatedMillis += unit.millis;
+			byLoad.add(shard);
+		}
+
+		for (Shard shard : shards) {
+			Collections.sort(shard.methods, new Comparator<Timing>() {
+				@Override
+				public int compare(Timing a, Timing b) {
+					return Long.compare(b.getMillis(), a.getMillis());
+				}
+			});
+		}
+		return shards;
+	}
+
+	/*
+	 * Groups the recorded methods that cover the cases, joining methods that share a case (union-find).
+	 */
+	private List<Unit> buildUnits(List<String> caseIDs) {
+		Set<Long> included = new LinkedHashSet<Long>();
+		for (String caseID : caseIDs) {
+			included.add(Long.parseLong(caseID.trim()));
+		}
+
+		List<Timing> methods = new ArrayList<Timing>();
+		for (Timing timing : timings) {
+			for (Long testCase : timing.getTestCases()) {
+				if (included.contains(testCase)) {
+					methods.add(timing);
+					break;
+				}
+			}
+		}
+
+		int[] parent = new int[methods.size()];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+		}
+		Map<Long, Integer> caseMethod = new HashMap<Long, Integer>();
+		for (int i = 0; i < methods.size(); i++) {
+			for (Long testCase : methods.get(i).getTestCases()) {
+				if (!included.contains(testCase)) {
+					continue;
+				}
+				Integer other = caseMethod.get(testCase);
+				if (other == null) {
+					caseMethod.put(testCase, i);
+				} else {
+					parent[find(parent, i)] = find(parent, other);
+				}
+			}
+		}
+
+		Map<Integer, Unit> unitsByRoot = new HashMap<Integer, Unit>();
+		List<Unit> units = new ArrayList<Unit>();
+		List<Long> methodMillis = new ArrayList<Long>();
+		for (int i = 0; i < methods.size(); i++) {
+			int root = find(parent, i);
+			Unit unit = unitsByRoot.get(root);
+			if (unit == null) {
+				unit = new Unit();
+				unitsByRoot.put(root, unit);
+				units.add(unit);
+			}
+			unit.methods.add(methods.get(i));
+			for (Long testCase : methods.get(i).getTestCases()) {
+				if (included.contains(testCase)) {
+					unit.cases.add(testCase.toString());
+				}
+			}
+			unit.millis += methods.get(i).getMillis();
+			methodMillis.add(methods.get(i).getMillis());
+		}
+
+		long untimedMillis = defaultCaseMillis;
+		if (!methodMillis.isEmpty()) {
+			Collections.sort(methodMillis);
+			untimedMillis = methodMillis.get(methodMillis.size() / 2);
+		}
+		for (Long testCase : included) {
+			if (!caseMethod.containsKey(testCase)) {
+				Unit unit = new Unit();
+				unit.cases.add(testCase.toString());
+				unit.untimedCases.add(testCase.toString());
+				unit.millis = untimedMillis;
+				units.add(unit);
+			}
+		}
+		return units;
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+}
@@ -0,0 +1,172 @@
+package common.testrail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.testng.Assert;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class checks the TestRailHttpTransport against a local mock TestRail server
+ * (no TestRail or browser needed):
+ *    mvn test -DsuiteFile=TestRail_Transport_TestSuite.xml
+ *
+ * The server counts the connections it accepts (one remote port per connection).
+ * The same calls are sent with TestRailHttpTransport, and with a transport that opens
+ * a new connection for every call (as the client did before), and compared.
+ * Only the connection counts are asserted. The latency per call is logged, as wall clock
+ * times are too noisy on a shared build agent to fail a build on.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailHttpTransportTest {
+
+	private static final int calls = 200;
+	private static final int warmupCalls = 20;
+
+	private HttpServer server;
+	private final Set<String> connections = Collections.synchronizedSet(new HashSet<String>());
+	private String baseURL;
+
+	@BeforeClass
+	public void startServer() throws IOException {
+		System.setProperty("sun.net.httpserver.nodelay", "true"); // No Nagle delay on small responses
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				connections.add(exchange.getRemoteAddress().toString());
+				try (InputStream in = exchange.getRequestBody()) {
+					while (in.read() != -1) {
+						// nothing
+					}
+				}
+				byte[] body = "{\"id\":1,\"name\":\"Mock run\"}".getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		server.start();
+		baseURL = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	@AfterClass(alwaysRun = true)
+	public void stopServer() {
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	@BeforeMethod
+	public void resetConnections() {
+		connections.clear();
+	}
+
+	@Test
+	public void reusesConnections() throws Exception {
+		TestRailAPIClient client = getClient(new TestRailHttpTransport());
+		for (int i = 0; i < calls; i++) {
+			JSONObject run = (JSONObject) client.sendGet("get_run/1");
+			Assert.assertEquals(run.get("name"), "Mock run");
+		}
+		client.sendPost("add_results_for_cases/1", new JSONObject());
+
+		Reporter.log("-- " + (calls + 1) + " calls, " + connections.size() + " connection(s)", true);
+		Assert.assertEquals(connections.size(), 1, "connections accepted");
+	}
+
+	@Test
+	public void fewerConnectionsThanNewConnectionPerCall() throws Exception {
+		TestRailAPIClient keepAlive = getClient(new TestRailHttpTransport());
+		TestRailAPIClient newConnection = getClient(new NewConnectionTransport());
+		timeCalls(keepAlive, warmupCalls);
+		timeCalls(newConnection, warmupCalls);
+
+		connections.clear();
+		long keepAliveNanos = timeCalls(keepAlive, calls);
+		int keepAliveConnections = connections.size();
+		connections.clear();
+		long newConnectionNanos = timeCalls(newConnection, calls);
+		int newConnectionConnections = connections.size();
+
+		Reporter.log(String.format("-- keep-alive: %d connection(s), %.3f ms/call; new connection per call: %d connection(s), %.3f ms/call",
+				keepAliveConnections, keepAliveNanos / 1e6 / calls, newConnectionConnections, newConnectionNanos / 1e6 / calls), true);
+		Assert.assertEquals(newConnectionConnections, calls, "connections accepted without reuse");
+		Assert.assertEquals(keepAliveConnections, 1, "connections accepted with keep-alive");
+	}
+
+	private TestRailAPIClient getClient(TestRailTransport transport) {
+		TestRailAPIClient client = new TestRailAPIClient(baseURL);
+		client.setUser("user");
+		client.setPassword("password");
+		client.setTransport(transport);
+		client.setRateLimiter(new TestRailRateLimiter(Integer.MAX_VALUE, calls));
+		client.setCircuitBreaker(new TestRailCircuitBreaker(TestRailCircuitBreaker.defaultFailureThreshold, 0));
+		return client;
+	}
+
+	private long timeCalls(TestRailAPIClient client, int count) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			client.sendGet("get_run/1");
+		}
+		return System.nanoTime() - start;
+	}
+
+	/*
+	 * Sends each call on a new connection, closed after the response
+	 */
+	private static class NewConnectionTransport implements TestRailTransport {
+		@Override
+		public TestRailResponse send(String method, URL url, String authorization, byte[] body) throws IOException {
+			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+			try {
+				conn.setRequestMethod(method);
+				conn.setRequestProperty("Connection", "close");
+				conn.setRequestProperty("Content-Type", "application/json");
+				conn.setRequestProperty("Authorization", authorization);
+				if (body != null) {
+					conn.setDoOutput(true);
+					try (OutputStream ostream = conn.getOutputStream()) {
+						ostream.write(body);
+					}
+				}
+				int status = conn.getResponseCode();
+				StringBuilder text = new StringBuilder();
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						text.append(line);
+					}
+				}
+				return new TestRailResponse(status, JSONValue.parse(text.toString()), null);
+			} finally {
+				conn.disconnect();
+			}
+		}
+	}
+}
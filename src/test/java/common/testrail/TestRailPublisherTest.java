@@ -0,0 +1,252 @@
+package common.testrail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class checks the TestRailPublisher against a local mock TestRail server
+ * (no TestRail or browser needed):
+ *    mvn test -DsuiteFile=TestRail_Transport_TestSuite.xml
+ *
+ * The mock server has:
+ * - plan 10, with run 7 ("Regression Chrome")
+ * - run 7, which takes results
+ * - run 8, which rejects results (HTTP 400)
+ * - run 9, which is down (HTTP 500)
+ * All runs hold cases 1, 2 and 3.
+ *
+ * @author mlabbe
+ *
+ */
+public class TestRailPublisherTest {
+
+	private static final long flushTimeoutMillis = 10000;
+	private static final long idleFlushMillis = 60000; // Only flush() sends a partial batch
+
+	private HttpServer server;
+	private String baseURL;
+	private final List<JSONObject> posted = Collections.synchronizedList(new ArrayList<JSONObject>()); // add_results_for_cases/7 bodies
+	private File spoolDir;
+	private final List<TestRailPublisher> publishers = new ArrayList<TestRailPublisher>();
+
+	@BeforeClass
+	public void startServer() throws IOException {
+		System.setProperty("sun.net.httpserver.nodelay", "true"); // No Nagle delay on small responses
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String uri = exchange.getRequestURI().getQuery().replaceFirst("^/api/v2/", "");
+				String body;
+				try (InputStream in = exchange.getRequestBody()) {
+					body = new String(readAll(in), StandardCharsets.UTF_8);
+				}
+				int status = 200;
+				String response;
+				if (uri.equals("get_plan/10")) {
+					response = "{\"id\":10,\"entries\":[{\"name\":\"Regression Chrome\",\"runs\":[{\"id\":7}]}]}";
+				} else if (uri.startsWith("get_tests/")) {
+					response = "[{\"case_id\":1},{\"case_id\":2},{\"case_id\":3}]";
+				} else if (uri.equals("add_results_for_cases/7")) {
+					posted.add((JSONObject) JSONValue.parse(body));
+					response = "[]";
+				} else if (uri.equals("add_results_for_cases/8")) {
+					status = 400;
+					response = "{\"error\":\"Field :results is not valid\"}";
+				} else if (uri.equals("add_results_for_cases/9")) {
+					status = 500;
+					response = "{\"error\":\"Internal error\"}";
+				} else {
+					status = 404;
+					response = "{\"error\":\"Unknown method\"}";
+				}
+				byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(status, bytes.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(bytes);
+				}
+			}
+		});
+		server.start();
+		baseURL = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	@AfterClass(alwaysRun = true)
+	public void stopServer() {
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		posted.clear();
+		spoolDir = Files.createTempDirectory("testrail-spool").toFile();
+	}
+
+	@AfterMethod(alwaysRun = true)
+	public void tearDown() {
+		for (TestRailPublisher publisher : publishers) {
+			publisher.shutdown(flushTimeoutMillis);
+		}
+		publishers.clear();
+		File[] files = spoolDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		spoolDir.delete();
+	}
+
+	@Test
+	public void sendsOneRequestPerRunOnFlush() throws Exception {
+		File spoolFile = new File(spoolDir, "testrail-spool-a.jsonl");
+		TestRailPublisher publisher = getPublisher(spoolFile, TestRailPublisher.defaultBatchSize, new ArrayList<File>());
+		publisher.publish("7", "run", "", new Long[] {1L}, 1, "passed", "chrome");
+		publisher.publish("7", "run", "", new Long[] {2L, 3L}, 5, "failed", "");
+		publisher.publish("10", "plan", "chrome", new Long[] {3L}, 1, "passed", "");
+
+		Assert.assertTrue(publisher.flush(flushTimeoutMillis), "flushed in time");
+		Assert.assertEquals(posted.size(), 1, "add_results_for_cases requests");
+		JSONArray results = (JSONArray) posted.get(0).get("results");
+		Assert.assertEquals(results.size(), 4, "case results sent");
+		JSONObject first = (JSONObject) results.get(0);
+		Assert.assertEquals(first.get("case_id"), 1L);
+		Assert.assertEquals(first.get("status_id"), 1L);
+		Assert.assertEquals(first.get("custom_browser"), "chrome");
+		Assert.assertFalse(spoolFile.exists(), "spool deleted once everything is sent");
+	}
+
+	@Test
+	public void splitsBatchesAtBatchSize() throws Exception {
+		TestRailPublisher publisher = getPublisher(new File(spoolDir, "testrail-spool-a.jsonl"), 2, new ArrayList<File>());
+		for (int i = 0; i < 5; i++) {
+			publisher.publish("7", "run", "", new Long[] {1L}, 1, "result " + i, "");
+		}
+
+		Assert.assertTrue(publisher.flush(flushTimeoutMillis), "flushed in time");
+		Assert.assertEquals(posted.size(), 3, "add_results_for_cases requests");
+		Assert.assertEquals(countResults(), 5, "case results sent");
+	}
+
+	@Test
+	public void keepsUnsentResultsInSpoolAndReplaysThemWhenAsked() throws Exception {
+		File spoolFile = new File(spoolDir, "testrail-spool-a.jsonl");
+		TestRailPublisher down = getPublisher(spoolFile, TestRailPublisher.defaultBatchSize, new ArrayList<File>());
+		down.publish("9", "run", "", new Long[] {1L}, 1, "passed", "");
+		down.publish("9", "run", "", new Long[] {2L}, 5, "failed", "");
+		Assert.assertTrue(down.flush(flushTimeoutMillis), "flushed in time");
+		Assert.assertEquals(readLines(spoolFile).size(), 2, "unsent results in spool");
+
+		// The spool is locked while its publisher is running
+		File otherSpool = new File(spoolDir, "testrail-spool-b.jsonl");
+		List<File> leftoverSpools = TestRailPublisher.findLeftoverSpools(otherSpool);
+		Assert.assertEquals(leftoverSpools, Collections.singletonList(spoolFile), "leftover spools");
+		TestRailPublisher other = getPublisher(otherSpool, TestRailPublisher.defaultBatchSize, leftoverSpools);
+		Assert.assertTrue(other.flush(flushTimeoutMillis), "flushed in time");
+		Assert.assertEquals(readLines(spoolFile).size(), 2, "spool in use left alone");
+
+		// Once its process is gone, the spool is replayed (pointed at run 7, as if TestRail were back)
+		down.shutdown(flushTimeoutMillis);
+		for (String line : readLines(spoolFile)) {
+			Assert.assertTrue(line.contains("\"id\":\"9\""), line);
+		}
+		Files.write(spoolFile.toPath(), new String(Files.readAllBytes(spoolFile.toPath()), StandardCharsets.UTF_8)
+				.replace("\"id\":\"9\"", "\"id\":\"7\"").getBytes(StandardCharsets.UTF_8));
+		File replaySpool = new File(spoolDir, "testrail-spool-c.jsonl");
+		TestRailPublisher replay = getPublisher(replaySpool, TestRailPublisher.defaultBatchSize,
+				TestRailPublisher.findLeftoverSpools(replaySpool));
+		Assert.assertTrue(replay.flush(flushTimeoutMillis), "flushed in time");
+		Assert.assertEquals(countResults(), 2, "replayed case results sent");
+		Assert.assertFalse(spoolFile.exists(), "replayed spool deleted");
+		Assert.assertFalse(replaySpool.exists(), "spool deleted once everything is sent");
+	}
+
+	@Test
+	public void deadLettersResultsThatCanNeverBeSent() throws Exception {
+		File spoolFile = new File(spoolDir, "testrail-spool-a.jsonl");
+		TestRailPublisher publisher = getPublisher(spoolFile, TestRailPublisher.defaultBatchSize, new ArrayList<File>());
+		publisher.publish("10", "plan", "firefox", new Long[] {1L}, 1, "no such run", "");
+		publisher.publish("8", "run", "", new Long[] {2L}, 1, "rejected", "");
+		publisher.publish("7", "run", "", new Long[] {3L}, 1, "sent", "");
+
+		Assert.assertTrue(publisher.flush(flushTimeoutMillis), "flushed in time");
+		Assert.assertEquals(countResults(), 1, "case results sent");
+		List<String> dead = readLines(publisher.getDeadLetterFile());
+		Assert.assertEquals(dead.size(), 2, "dead letters");
+		for (String line : dead) {
+			JSONObject result = (JSONObject) JSONValue.parse(line);
+			Assert.assertNotNull(result.get("error"), "reason recorded: " + line);
+		}
+		Assert.assertFalse(spoolFile.exists(), "dead letters removed from the spool");
+	}
+
+	private TestRailPublisher getPublisher(File spoolFile, int batchSize, List<File> leftoverSpools) {
+		TestRailAPIClient client = new TestRailAPIClient(baseURL);
+		client.setUser("user");
+		client.setPassword("password");
+		client.setRetryPolicy(new TestRailRetryPolicy(1, 0, 0));
+		client.setRateLimiter(new TestRailRateLimiter(Integer.MAX_VALUE, 100));
+		client.setCircuitBreaker(new TestRailCircuitBreaker(TestRailCircuitBreaker.defaultFailureThreshold, 0));
+		TestRailPublisher publisher = new TestRailPublisher(client, spoolFile, batchSize, idleFlushMillis, leftoverSpools);
+		publishers.add(publisher);
+		return publisher;
+	}
+
+	private int countResults() {
+		int count = 0;
+		synchronized (posted) {
+			for (JSONObject body : posted) {
+				count += ((JSONArray) body.get("results")).size();
+			}
+		}
+		return count;
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		if (file.exists()) {
+			for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				if (!line.trim().isEmpty()) {
+					lines.add(line);
+				}
+			}
+		}
+		return lines;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+}
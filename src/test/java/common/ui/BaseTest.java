@@ -4,10 +4,11 @@ package common.ui;
 import java.io.File;
 import java.net.URL;
 import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.openqa.selenium.Alert;
@@ -29,11 +30,22 @@ import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.remote.LocalFileDetector;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.safari.SafariDriver;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
 import org.testng.Reporter;
 import org.testng.annotations.AfterMethod;
+import org.testng.annotations.AfterSuite;
+import org.testng.annotations.BeforeTest;
+import org.testng.xml.XmlSuite.ParallelMode;
+import org.testng.xml.XmlTest;
 
 import common.testrail.TestRail;
+import common.testrail.TestRailPublisher;
+import common.utils.DownloadWatcher;
 import common.utils.GeneralUtils;
+import common.utils.ScreenshotWriter;
+import common.utils.TestEventLog;
+import common.utils.TestTimings;
 import common.utils.ValidationUtils;
 
 // * appium
@@ -48,11 +60,11 @@ import common.utils.ValidationUtils;
 
 
 /**
- * This class is the base class for test case classes. - It launches the
- * driver/browser session before each test class (BeforeClass). - It handles
+ * This class is the base class for test case classes. - It leases a pooled
+ * driver/browser session before each test method (BeforeMethod). - It handles
  * capturing screenshots for failed test methods (AferMethod). - It handles
- * killing the Selenium driver/browser session after each test class
- * (AfterClass)
+ * returning the Selenium driver/browser session to the pool after each test
+ * method (AfterMethod), and quitting all sessions after the suite (AfterSuite)
  * 
  * @author mlabbe
  */
@@ -98,13 +110,11 @@ public class BaseTest extends ValidationUtils {
 	protected static final String smartBearScreenRes = "1366x768";
 	protected static final int smartBearDefaultTimeout = 2000;
 
-	private ChromeOptions chromeOptions = new ChromeOptions();
-	private FirefoxProfile ffProfile = new FirefoxProfile();
-	private EdgeOptions edgeOptions = new EdgeOptions();
-	private DesiredCapabilities capabilities;
-	
 	private GeneralUtils genUtils = new GeneralUtils();
 
+	// Download folder of each local browser session
+	private static final Map<WebDriver, String> downloadFolders = Collections.synchronizedMap(new WeakHashMap<WebDriver, String>());
+
 	/**
 	 * This method is the primary method for starting up the desired browser
 	 * driver.
@@ -112,36 +122,89 @@ public class BaseTest extends ValidationUtils {
 	 * @param browserType
 	 */
 	protected void setDriver() throws Exception {
-		switch (browser.split("[-]")[0].toLowerCase()) {
+		// The factory is kept by the pool and can run later on a launcher thread,
+		// so it captures this configuration rather than reading the (shared) fields
+		final BrowserConfig poolConfig = new BrowserConfig(runLocation, serverURL, browser, browserVersion, platformOS);
+		String poolKey = DriverPool.getKey(poolConfig.runLocation, poolConfig.serverURL, poolConfig.browser,
+				poolConfig.browserVersion, poolConfig.platformOS);
+		driver.set(DriverPool.getInstance().lease(poolKey, new DriverPool.DriverFactory() {
+			@Override
+			public WebDriver createDriver() throws Exception {
+				return launchDriver(new BrowserConfig(poolConfig.runLocation, poolConfig.serverURL, poolConfig.browser,
+						poolConfig.browserVersion, poolConfig.platformOS));
+			}
+		}));
+		getDriver().manage().timeouts().implicitlyWait(defaultImplicitWaitTime, TimeUnit.SECONDS);
+		DownloadWatcher.setCurrentFolder(downloadFolders.get(getDriver()));
+	}
+
+	/*
+	 * A parsed browser configuration, one copy per launch (version/platform defaults are filled in)
+	 */
+	private static final class BrowserConfig {
+		private final String runLocation;
+		private final String serverURL;
+		private final String browser;
+		private String browserVersion;
+		private String platformOS;
+
+		private BrowserConfig(String runLocation, String serverURL, String browser, String browserVersion, String platformOS) {
+			this.runLocation = runLocation;
+			this.serverURL = serverURL;
+			this.browser = browser;
+			this.browserVersion = browserVersion;
+			this.platformOS = platformOS;
+		}
+	}
+
+	/*
+	 * Launches a new browser session for the given browser configuration.
+	 * Can run on a DriverLauncher thread, so the options/capabilities are built per launch.
+	 */
+	private WebDriver launchDriver(BrowserConfig config) throws Exception {
+		// Local browsers get their own download folder, so parallel tests don't collide
+		String downloadFolder = BasePage.myTempDownloadsFolder;
+		boolean sessionFolder = config.runLocation.toLowerCase().equals("local");
+		if (sessionFolder) {
+			downloadFolder = DownloadWatcher.getInstance().createSessionFolder();
+		}
+		switch (config.browser.split("[-]")[0].toLowerCase()) {
 		case "firefox":
-			setFirefoxDriver();
+			setFirefoxDriver(downloadFolder, config);
 			break;
 		case "chrome":
 			// runDocker();
-			setChromeDriver();
+			setChromeDriver(downloadFolder, config);
 			break;
 		case "ie":
-			setIEDriver();
+			setIEDriver(config);
 			break;
 		case "edge":
-			setEdgeDriver();
+			setEdgeDriver(config);
 			break;
 		case "safari":
-			setSafariDriver();
+			setSafariDriver(config);
 			break;
 		default:
-			setChromeDriver();
+			setChromeDriver(downloadFolder, config);
 			break;
 		}
-		getDriver().manage().window().maximize(); // Maximize the browser.
-		getDriver().manage().timeouts().implicitlyWait(defaultImplicitWaitTime, TimeUnit.SECONDS);
+		WebDriver myDriver = getDriver();
+		CommandLatency.getInstance().instrument(myDriver); // Time every driver command
+		if (sessionFolder) {
+			downloadFolders.put(myDriver, downloadFolder);
+		}
+		driver.remove(); // setDriver() sets it for the test thread once leased
+		myDriver.manage().window().maximize(); // Maximize the browser.
+		return myDriver;
 	}
 
 	
 	/*
 	 * This will set the Firefox driver.
 	 */
-	private void setFirefoxDriver() throws Exception {
+	private void setFirefoxDriver(String downloadFolder, BrowserConfig config) throws Exception {
+		FirefoxProfile ffProfile = new FirefoxProfile();
 		// Disable cache
 		ffProfile.setPreference("browser.cache.disk.enable", false);
 		ffProfile.setPreference("browser.cache.disk_cache_ssl", false);
@@ -151,9 +214,9 @@ public class BaseTest extends ValidationUtils {
 		ffProfile.setPreference("browser.download.folderList", 2);
 		ffProfile.setPreference("browser.download.manager.showWhenStarting", false);
 		ffProfile.setPreference("browser.helperApps.neverAsk.saveToDisk", "application/zip");
-		ffProfile.setPreference("browser.download.dir", BasePage.myTempDownloadsFolder);// "\\temp_downloads");
+		ffProfile.setPreference("browser.download.dir", downloadFolder);// "\\temp_downloads");
 		// TODO: Using "C:" will not work for Linux or OS X support
-		File dir = new File(BasePage.myTempDownloadsFolder);// "\\temp_downloads");
+		File dir = new File(downloadFolder);// "\\temp_downloads");
 		if (!dir.exists()) {
 			dir.mkdir();
 		}
@@ -169,55 +232,55 @@ public class BaseTest extends ValidationUtils {
 		// ffOptions.setHeadless(true);
 
 		ffOptions.setProfile(ffProfile);
-		capabilities = DesiredCapabilities.firefox();
+		DesiredCapabilities capabilities = DesiredCapabilities.firefox();
 		capabilities.setCapability(FirefoxDriver.PROFILE, ffProfile);
 		WebDriver myDriver = null;
 		RemoteWebDriver rcDriver;
 
-		switch (runLocation.toLowerCase()) {
+		switch (config.runLocation.toLowerCase()) {
 		case "local":
 			System.setProperty("webdriver.gecko.driver", firefoxDriverLocation);
 			myDriver = new FirefoxDriver(ffOptions);
 			break;
 		case "grid":
-			rcDriver = new RemoteWebDriver(new URL(serverURL), ffOptions);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), ffOptions);
 			rcDriver.setFileDetector(new LocalFileDetector());
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "testingbot":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultFirefoxVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultFirefoxVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = defaultPlatformOS;
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = defaultPlatformOS;
 			}
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
 			// capabilities.setCapability("name", testName); // TODO: set a test
 			// name (suite name maybe) or combined with env
-			rcDriver = new RemoteWebDriver(new URL(serverURL), ffOptions);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), ffOptions);
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "smartbear":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultFirefoxVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultFirefoxVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = defaultPlatformOS;
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = defaultPlatformOS;
 			}
 			//capabilities.setCapability("name", testMethod.get());
-			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" FF-"+platformOS);
+			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" FF-"+config.platformOS);
 			capabilities.setCapability("max_duration", smartBearDefaultTimeout);
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
 			capabilities.setCapability("screenResolution", smartBearScreenRes);
 			capabilities.setCapability("record_video", "true"); Reporter.log(
-					 "BROWSER: " + browser, true); Reporter.log("BROWSER Version: " +
-							 browserVersion, true); Reporter.log("PLATFORM: " + platformOS, true);
-			Reporter.log("URL '" + serverURL + "'", true); rcDriver = new
-			RemoteWebDriver(new URL(serverURL), capabilities); myDriver = new
+					 "BROWSER: " + config.browser, true); Reporter.log("BROWSER Version: " +
+							 config.browserVersion, true); Reporter.log("PLATFORM: " + config.platformOS, true);
+			Reporter.log("URL '" + config.serverURL + "'", true); rcDriver = new
+			RemoteWebDriver(new URL(config.serverURL), capabilities); myDriver = new
 			Augmenter().augment(rcDriver);
 			break;
 		default:
@@ -230,14 +293,15 @@ public class BaseTest extends ValidationUtils {
 	/*
 	 * This will set the Chrome driver
 	 */
-	private void setChromeDriver() throws Exception {
+	private void setChromeDriver(String downloadFolder, BrowserConfig config) throws Exception {
 		// boolean headless = false;
+		ChromeOptions chromeOptions = new ChromeOptions();
 		HashMap<String, Object> chromePrefs = new HashMap<String, Object>();
 		chromePrefs.put("profile.default_content_settings.popups", 0);
-		chromePrefs.put("download.default_directory", BasePage.myTempDownloadsFolder);
+		chromePrefs.put("download.default_directory", downloadFolder);
 		chromeOptions.setExperimentalOption("prefs", chromePrefs);
 		// TODO: Using "C:" will not work for Linux or OS X
-		File dir = new File(BasePage.myTempDownloadsFolder);
+		File dir = new File(downloadFolder);
 		if (!dir.exists()) {
 			dir.mkdir();
 		}
@@ -252,7 +316,8 @@ public class BaseTest extends ValidationUtils {
 		 */
 		// chromeOptions.setHeadless(true);
 
-		if (runLocation.toLowerCase().equals("smartbear")) {
+		DesiredCapabilities capabilities;
+		if (config.runLocation.toLowerCase().equals("smartbear")) {
 			Reporter.log("-- SMARTBEAR:  standard capabilities.  Not ChromeOptions", true);
 			capabilities = new DesiredCapabilities();
 		} else {
@@ -263,51 +328,51 @@ public class BaseTest extends ValidationUtils {
 		WebDriver myDriver = null;
 		RemoteWebDriver rcDriver;
 
-		switch (runLocation.toLowerCase()) {
+		switch (config.runLocation.toLowerCase()) {
 		case "local":
 			System.setProperty("webdriver.chrome.driver", chromeDriverLocation);
 			myDriver = new ChromeDriver(chromeOptions);
 			break;
 		case "grid":
-			rcDriver = new RemoteWebDriver(new URL(serverURL), capabilities);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), capabilities);
 			rcDriver.setFileDetector(new LocalFileDetector());
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "testingbot":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultChromeVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultChromeVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = defaultPlatformOS;
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = defaultPlatformOS;
 			}
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
 			// capabilities.setCapability("name", testName); // TODO: set a test
 			// name (suite name maybe) or combined with env
-			rcDriver = new RemoteWebDriver(new URL(serverURL), capabilities);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), capabilities);
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "smartbear":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultChromeVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultChromeVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = defaultPlatformOS;
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = defaultPlatformOS;
 			}
 			 
 			//capabilities.setCapability("name", testMethod.get());
-			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" Chrome-"+platformOS);
+			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" Chrome-"+config.platformOS);
 			capabilities.setCapability("max_duration", smartBearDefaultTimeout);
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
 			capabilities.setCapability("screenResolution", smartBearScreenRes);
 			capabilities.setCapability("record_video", "true"); Reporter.log(
-					 "BROWSER: " + browser, true); Reporter.log("BROWSER Version: " +
-							 browserVersion, true); Reporter.log("PLATFORM: " + platformOS, true);
-			Reporter.log("URL '" + serverURL + "'", true); rcDriver = new
-			RemoteWebDriver(new URL(serverURL), capabilities); myDriver = new
+					 "BROWSER: " + config.browser, true); Reporter.log("BROWSER Version: " +
+							 config.browserVersion, true); Reporter.log("PLATFORM: " + config.platformOS, true);
+			Reporter.log("URL '" + config.serverURL + "'", true); rcDriver = new
+			RemoteWebDriver(new URL(config.serverURL), capabilities); myDriver = new
 			Augmenter().augment(rcDriver);
 			break;
 		default:
@@ -318,8 +383,9 @@ public class BaseTest extends ValidationUtils {
 		driver.set(myDriver);
 	}
 
-	private void setEdgeDriver() throws Exception {
-		capabilities = DesiredCapabilities.edge();
+	private void setEdgeDriver(BrowserConfig config) throws Exception {
+		DesiredCapabilities capabilities = DesiredCapabilities.edge();
+		EdgeOptions edgeOptions = new EdgeOptions();
 		capabilities.setJavascriptEnabled(true);
 		edgeOptions.setPageLoadStrategy("eager");
 		edgeOptions.merge(capabilities);
@@ -327,49 +393,49 @@ public class BaseTest extends ValidationUtils {
 		WebDriver myDriver = null;
 		RemoteWebDriver rcDriver;
 
-		switch (runLocation.toLowerCase()) {
+		switch (config.runLocation.toLowerCase()) {
 		case "local":
 			System.setProperty("webdriver.edge.driver", edgeDriverLocation);
 			myDriver = new EdgeDriver(edgeOptions);
 			break;
 		case "grid":
-			rcDriver = new RemoteWebDriver(new URL(serverURL), edgeOptions);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), edgeOptions);
 			rcDriver.setFileDetector(new LocalFileDetector());
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "testingbot":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultEdgeVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultEdgeVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = "WIN10";
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = "WIN10";
 			}
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
-			rcDriver = new RemoteWebDriver(new URL(serverURL), capabilities);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), capabilities);
 			rcDriver.setFileDetector(new LocalFileDetector());
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "smartbear":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultEdgeVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultEdgeVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = defaultPlatformOS;
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = defaultPlatformOS;
 			}
 			//capabilities.setCapability("name", testMethod.get());
-			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" Edge-"+platformOS);
+			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" Edge-"+config.platformOS);
 			capabilities.setCapability("max_duration", smartBearDefaultTimeout);
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
 			capabilities.setCapability("screenResolution", smartBearScreenRes);
 			capabilities.setCapability("record_video", "true"); Reporter.log(
-					 "BROWSER: " + browser, true); Reporter.log("BROWSER Version: " +
-							 browserVersion, true); Reporter.log("PLATFORM: " + platformOS, true);
-			Reporter.log("URL '" + serverURL + "'", true); rcDriver = new
-			RemoteWebDriver(new URL(serverURL), capabilities); myDriver = new
+					 "BROWSER: " + config.browser, true); Reporter.log("BROWSER Version: " +
+							 config.browserVersion, true); Reporter.log("PLATFORM: " + config.platformOS, true);
+			Reporter.log("URL '" + config.serverURL + "'", true); rcDriver = new
+			RemoteWebDriver(new URL(config.serverURL), capabilities); myDriver = new
 			Augmenter().augment(rcDriver);
 			break;
 		default:
@@ -383,8 +449,8 @@ public class BaseTest extends ValidationUtils {
 	/*
 	 * This will set the IE driver
 	 */
-	private void setIEDriver() throws Exception {
-		capabilities = DesiredCapabilities.internetExplorer();
+	private void setIEDriver(BrowserConfig config) throws Exception {
+		DesiredCapabilities capabilities = DesiredCapabilities.internetExplorer();
 		// capabilities.setCapability("ignoreProtectedModeSettings", true);
 		// capabilities.setCapability("ignoreZoomSetting", true);
 		// capabilities.setCapability(InternetExplorerDriver.IE_ENSURE_CLEAN_SESSION,
@@ -400,51 +466,51 @@ public class BaseTest extends ValidationUtils {
 		WebDriver myDriver = null;
 		RemoteWebDriver rcDriver;
 
-		switch (runLocation.toLowerCase()) {
+		switch (config.runLocation.toLowerCase()) {
 		case "local":
 			System.setProperty("webdriver.ie.driver", ieDriverLocation);
 			myDriver = new InternetExplorerDriver(ieOptions);
 			break;
 		case "grid":
-			rcDriver = new RemoteWebDriver(new URL(serverURL), capabilities);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), capabilities);
 			rcDriver.setFileDetector(new LocalFileDetector());
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "testingbot":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultIEVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultIEVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = defaultPlatformOS;
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = defaultPlatformOS;
 			}
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
 			// capabilities.setCapability("name", testName); // TODO: set a test
 			// name (suite name maybe) or combined with env
-			rcDriver = new RemoteWebDriver(new URL(serverURL), capabilities);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), capabilities);
 			rcDriver.setFileDetector(new LocalFileDetector());
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "smartbear":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultIEVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultIEVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = defaultPlatformOS;
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = defaultPlatformOS;
 			}
 			//capabilities.setCapability("name", testMethod.get());
-			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" IE-"+platformOS);
+			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" IE-"+config.platformOS);
 			capabilities.setCapability("max_duration", smartBearDefaultTimeout);
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
 			capabilities.setCapability("screenResolution", smartBearScreenRes);
 			capabilities.setCapability("record_video", "true"); Reporter.log(
-					 "BROWSER: " + browser, true); Reporter.log("BROWSER Version: " +
-							 browserVersion, true); Reporter.log("PLATFORM: " + platformOS, true);
-			Reporter.log("URL '" + serverURL + "'", true); rcDriver = new
-			RemoteWebDriver(new URL(serverURL), capabilities); myDriver = new
+					 "BROWSER: " + config.browser, true); Reporter.log("BROWSER Version: " +
+							 config.browserVersion, true); Reporter.log("PLATFORM: " + config.platformOS, true);
+			Reporter.log("URL '" + config.serverURL + "'", true); rcDriver = new
+			RemoteWebDriver(new URL(config.serverURL), capabilities); myDriver = new
 			Augmenter().augment(rcDriver);
 			break;
 		default:
@@ -455,39 +521,39 @@ public class BaseTest extends ValidationUtils {
 		driver.set(myDriver);
 	}
 
-	private void setSafariDriver() throws Exception {
+	private void setSafariDriver(BrowserConfig config) throws Exception {
 		WebDriver myDriver = null;
 		RemoteWebDriver rcDriver;
-		capabilities = new DesiredCapabilities();
+		DesiredCapabilities capabilities = new DesiredCapabilities();
 		
-		switch (runLocation.toLowerCase()) {
+		switch (config.runLocation.toLowerCase()) {
 		case "local":
 			myDriver = new SafariDriver();
 			break;
 		case "grid":
-			rcDriver = new RemoteWebDriver(new URL(serverURL), capabilities);
+			rcDriver = new RemoteWebDriver(new URL(config.serverURL), capabilities);
 			rcDriver.setFileDetector(new LocalFileDetector());
 			myDriver = new Augmenter().augment(rcDriver);
 			break;
 		case "smartbear":
-			if (browserVersion.isEmpty()) {
-				browserVersion = defaultSafariVersion;
+			if (config.browserVersion.isEmpty()) {
+				config.browserVersion = defaultSafariVersion;
 			}
-			if (platformOS.isEmpty()) {
-				platformOS = defaultOSX;
+			if (config.platformOS.isEmpty()) {
+				config.platformOS = defaultOSX;
 			}
 			//capabilities.setCapability("name", testMethod.get());
-			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" Safari-"+platformOS);
+			capabilities.setCapability("build", testProperties.getString(TEST_ENV)+" Safari-"+config.platformOS);
 			capabilities.setCapability("max_duration", smartBearDefaultTimeout);
-			capabilities.setCapability("browserName", browser);
-			capabilities.setCapability("version", browserVersion);
-			capabilities.setCapability("platform", platformOS);
+			capabilities.setCapability("browserName", config.browser);
+			capabilities.setCapability("version", config.browserVersion);
+			capabilities.setCapability("platform", config.platformOS);
 			capabilities.setCapability("screenResolution", smartBearScreenRes);
 			capabilities.setCapability("record_video", "true"); Reporter.log(
-					 "BROWSER: " + browser, true); Reporter.log("BROWSER Version: " +
-							 browserVersion, true); Reporter.log("PLATFORM: " + platformOS, true);
-			Reporter.log("URL '" + serverURL + "'", true); rcDriver = new
-			RemoteWebDriver(new URL(serverURL), capabilities); myDriver = new
+					 "BROWSER: " + config.browser, true); Reporter.log("BROWSER Version: " +
+							 config.browserVersion, true); Reporter.log("PLATFORM: " + config.platformOS, true);
+			Reporter.log("URL '" + config.serverURL + "'", true); rcDriver = new
+			RemoteWebDriver(new URL(config.serverURL), capabilities); myDriver = new
 			Augmenter().augment(rcDriver);
 			break;
 		default:
@@ -614,22 +680,44 @@ public class BaseTest extends ValidationUtils {
 		}
 		Reporter.setCurrentTestResult(null);
 		dismissAlert(); // Dismiss any alert that may be open
-		// Close Browser
-		try {
-			getDriver().close();
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		// Quit Driver
-		try {
-			getDriver().quit();
-		} catch (Exception e) {
-			// do nothing
-		}
+		// Empty the session's download folder for the next test
+		DownloadWatcher.getInstance().cleanCurrentFolder();
+		DownloadWatcher.setCurrentFolder(null);
+		// Return the browser to the pool (quits it once it has been used enough)
+		DriverPool.getInstance().release(getDriver());
+		driver.remove();
 		// ** Docker container would close here
 		// stopDocker();
 	}
 
+	/*
+	 * Before each <test>, size the browser prewarm depth from its thread count.
+	 */
+	@BeforeTest(alwaysRun = true)
+	protected void beforeTest(ITestContext context) {
+		XmlTest xmlTest = context.getCurrentXmlTest();
+		ParallelMode parallel = xmlTest.getParallel();
+		int threads = 1;
+		if (parallel != null && parallel != ParallelMode.NONE && parallel != ParallelMode.FALSE) {
+			threads = xmlTest.getThreadCount();
+		}
+		DriverPool.getInstance().setPrewarmDepth(threads);
+	}
+
+	/*
+	 * After the suite, save the test timings, send any queued TestRail results,
+	 * write the command latencies and event report, and quit any browsers still held by the pool.
+	 */
+	@AfterSuite(alwaysRun = true)
+	protected void afterSuite() {
+		TestTimings.getInstance().save();
+		TestRailPublisher.flushShared();
+		ScreenshotWriter.getInstance().flush(ScreenshotWriter.defaultFlushMillis);
+		CommandLatency.getInstance().export();
+		TestEventLog.getInstance().writeReport();
+		DriverPool.getInstance().quitAll();
+	}
+
 	/**
 	 * Dismiss an alert
 	 */
@@ -664,10 +752,12 @@ public class BaseTest extends ValidationUtils {
 		// Only need to close if more than 1 window open.
 		if (windows.length > 1) {
 			// Close all BUT the first (0) index of the Window Handle List
-			for (int i = 2; i < windows.length; i++) {
+			for (int i = 1; i < windows.length; i++) {
 				getDriver().switchTo().window((String) windows[i]);
 				getDriver().close();
 			}
+			// Switch back to the main window
+			getDriver().switchTo().window((String) windows[0]);
 		}
 	}
 
@@ -776,6 +866,7 @@ public class BaseTest extends ValidationUtils {
 			String comment) throws Exception {
 		long endTime = System.nanoTime();
 		String elapsedTime = genUtils.getElapsedTime(startTime, endTime);
+		recordTiming(methodName, testCases, (endTime - startTime) / 1000000L);
 		try {
 			softAssert.get().assertAll(testCases, comment);
 			logTestEnd(elapsedTime, methodName, exception, true, comment);
@@ -785,6 +876,19 @@ public class BaseTest extends ValidationUtils {
 		}
 	}
 
+	/*
+	 * Records the test duration for suite ordering/sharding (see TestTimings).
+	 */
+	private void recordTiming(String methodName, Long[] testCases, long millis) {
+		ITestResult result = Reporter.getCurrentTestResult();
+		if (result != null && result.getMethod() != null) {
+			TestTimings.getInstance().record(result.getTestClass().getName(), result.getMethod().getMethodName(),
+					testCases, millis);
+		} else {
+			TestTimings.getInstance().record(getClass().getName(), methodName, testCases, millis);
+		}
+	}
+
 	/**
 	 * Called from finally blocks. AssertAll the softAsserts Logs end of test
 	 * 
@@ -823,7 +927,7 @@ public class BaseTest extends ValidationUtils {
 	 * @param logString The string message to log
 	 */
 	protected void logEntry(String logString) {
-		Reporter.log(logString, true);
+		TestEventLog.getInstance().log(TestEventLog.Type.STEP, logString);
 	}
 
 	/**
@@ -833,9 +937,8 @@ public class BaseTest extends ValidationUtils {
 	 * @return long Start time in Nano time
 	 */
 	protected long logTestStart(String methodName) {
-		String startTimeString = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss").format(new Date());
-		logEntry("*** START " + methodName + ":  " + testProperties.getEnvironmentName() + " / " + browser + " / "
-				+ startTimeString);
+		CommandLatency.getInstance().startTest(getClass().getName() + "." + methodName);
+		TestEventLog.getInstance().testStart(methodName, "env", testProperties.getEnvironmentName(), "browser", browser);
 		return System.nanoTime();
 	}
 
@@ -848,9 +951,9 @@ public class BaseTest extends ValidationUtils {
 	 */
 	protected long logTestStart(String methodName, String comment) {
 		screenshotAdditionalData = comment;
-		String startTimeString = new SimpleDateFormat("MM/dd/yyyy HH:mm:ss").format(new Date());
-		logEntry("*** START " + methodName + " (" + comment + "):  " + testProperties.getEnvironmentName() + " / "
-				+ browser + " / " + startTimeString);
+		CommandLatency.getInstance().startTest(getClass().getName() + "." + methodName + " (" + comment + ")");
+		TestEventLog.getInstance().testStart(methodName, "comment", comment, "env", testProperties.getEnvironmentName(),
+				"browser", browser);
 		return System.nanoTime();
 	}
 
@@ -882,11 +985,8 @@ public class BaseTest extends ValidationUtils {
 			result = "passed";
 		}
 
-		if (!comment.isEmpty()) {
-			logEntry("**** END " + methodName + " (" + comment + "): Result - " + result + " / Timer - " + elapsedTime);
-		} else {
-			logEntry("**** END " + methodName + ": Result - " + result + " / Timer - " + elapsedTime);
-		}
+		TestEventLog.getInstance().testEnd(methodName, "comment", comment, "result", result, "elapsed", elapsedTime);
+		CommandLatency.getInstance().endTest();
 	}
 
 
@@ -0,0 +1,223 @@
+package common.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.testng.Assert;
+import org.testng.Reporter;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * This class checks that ExcelStreamReader reads the same cell texts as XSSFCell.toString(),
+ * and compares how long it takes against loading the workbook with XSSFWorkbook
+ * (no TestRail or browser needed):
+ *    mvn test -DsuiteFile=Data_TestSuite.xml
+ *
+ * The workbooks are written to temp files by the test:
+ * - With XSSFWorkbook (shared strings), and with SXSSFWorkbook (inline strings)
+ * - Strings, numbers, dates, booleans, formulas, sparse rows and missing rows
+ * - A 50k row workbook for the timings, which are logged, not asserted.
+ *
+ * @author mlabbe
+ *
+ */
+public class ExcelStreamReaderTest {
+
+	private static final String sheetName = "Data";
+	private static final int benchmarkRows = 50000;
+
+	private final List<File> workbooks = new ArrayList<File>();
+
+	@BeforeClass
+	public void writeWorkbooks() throws IOException {
+		workbooks.add(writeWorkbook(new XSSFWorkbook(), "shared-strings"));
+		workbooks.add(writeWorkbook(new SXSSFWorkbook(100), "inline-strings"));
+	}
+
+	@AfterClass(alwaysRun = true)
+	public void deleteWorkbooks() {
+		for (File workbook : workbooks) {
+			workbook.delete();
+		}
+	}
+
+	@Test
+	public void readsSameCellTextsAsXSSFCell() throws Exception {
+		for (File workbook : workbooks.subList(0, 2)) {
+			List<Integer> expectedRows = new ArrayList<Integer>();
+			List<List<String>> expected = readWithWorkbook(workbook, expectedRows);
+			List<Integer> actualRows = new ArrayList<Integer>();
+			List<List<String>> actual = readWithStreamReader(workbook, actualRows);
+
+			Assert.assertEquals(actualRows, expectedRows, "row indexes of " + workbook.getName());
+			for (int i = 0; i < expected.size(); i++) {
+				Assert.assertEquals(actual.get(i), expected.get(i), "row " + expectedRows.get(i) + " of " + workbook.getName());
+			}
+		}
+	}
+
+	@Test
+	public void readsSheetNames() throws Exception {
+		Assert.assertEquals(ExcelStreamReader.getSheetNames(workbooks.get(0).getPath()).get(0), sheetName);
+	}
+
+	@Test
+	public void timesStreamReaderAgainstXSSFWorkbook() throws Exception {
+		File workbook = writeBenchmarkWorkbook();
+		workbooks.add(workbook);
+
+		long start = System.nanoTime();
+		List<List<String>> expected = readWithWorkbook(workbook, new ArrayList<Integer>());
+		long workbookNanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		List<List<String>> actual = readWithStreamReader(workbook, new ArrayList<Integer>());
+		long streamNanos = System.nanoTime() - start;
+
+		Reporter.log(String.format("-- %d rows: XSSFWorkbook %d ms, ExcelStreamReader %d ms (%.1fx)",
+				benchmarkRows, workbookNanos / 1000000, streamNanos / 1000000, (double) workbookNanos / streamNanos), true);
+		Assert.assertEquals(actual.size(), benchmarkRows, "rows read");
+		Assert.assertTrue(actual.equals(expected), "same cell texts as XSSFWorkbook");
+	}
+
+	/*
+	 * Every kind of cell ExcelStreamReader has to show like XSSFCell.toString()
+	 */
+	private File writeWorkbook(Workbook workbook, String name) throws IOException {
+		CellStyle dateStyle = workbook.createCellStyle();
+		dateStyle.setDataFormat(workbook.createDataFormat().getFormat("m/d/yy"));
+		CellStyle customDateStyle = workbook.createCellStyle();
+		customDateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
+		CellStyle decimalStyle = workbook.createCellStyle();
+		decimalStyle.setDataFormat(workbook.createDataFormat().getFormat("0.00"));
+
+		Sheet sheet = workbook.createSheet(sheetName);
+		Row header = sheet.createRow(0);
+		String[] names = {"string", "integer", "decimal", "negative", "date", "custom date", "boolean", "formula", "string formula", "styled number"};
+		for (int i = 0; i < names.length; i++) {
+			header.createCell(i).setCellValue(names[i]);
+		}
+
+		Row values = sheet.createRow(1);
+		values.createCell(0).setCellValue("Some text, with a comma");
+		values.createCell(1).setCellValue(42);
+		values.createCell(2).setCellValue(1.5);
+		values.createCell(3).setCellValue(-3.25);
+		Cell date = values.createCell(4);
+		date.setCellValue(new GregorianCalendar(2017, Calendar.MARCH, 9).getTime());
+		date.setCellStyle(dateStyle);
+		Cell customDate = values.createCell(5);
+		customDate.setCellValue(new GregorianCalendar(2018, Calendar.DECEMBER, 31, 23, 59).getTime());
+		customDate.setCellStyle(customDateStyle);
+		values.createCell(6).setCellValue(true);
+		values.createCell(7).setCellFormula("B2*2+C2");
+		values.createCell(8).setCellFormula("CONCATENATE(A2,\"!\")");
+		Cell styled = values.createCell(9);
+		styled.setCellValue(1234.5);
+		styled.setCellStyle(decimalStyle);
+
+		Row sparse = sheet.createRow(2); // Cells missing before, between and after
+		sparse.createCell(2).setCellValue("third");
+		sparse.createCell(5).setCellValue(false);
+		sparse.createCell(7).setCellValue(0);
+
+		sheet.createRow(3); // Row with no cells
+		// Rows 4 and 5 missing
+
+		Row afterGap = sheet.createRow(6);
+		afterGap.createCell(0).setCellValue("");
+		afterGap.createCell(1).setCellValue(" padded ");
+		afterGap.createCell(27).setCellValue("column AB");
+
+		return save(workbook, name);
+	}
+
+	/*
+	 * A large sheet: a header, then strings, numbers, dates and booleans on every row
+	 */
+	private File writeBenchmarkWorkbook() throws IOException {
+		SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+		workbook.setCompressTempFiles(true);
+		CellStyle dateStyle = workbook.createCellStyle();
+		dateStyle.setDataFormat(workbook.createDataFormat().getFormat("m/d/yy"));
+		Sheet sheet = workbook.createSheet(sheetName);
+		Row header = sheet.createRow(0);
+		String[] names = {"id", "name", "email", "amount", "date", "active"};
+		for (int i = 0; i < names.length; i++) {
+			header.createCell(i).setCellValue(names[i]);
+		}
+		Calendar calendar = new GregorianCalendar(2017, Calendar.JANUARY, 1);
+		for (int i = 1; i < benchmarkRows; i++) {
+			Row row = sheet.createRow(i);
+			row.createCell(0).setCellValue(i);
+			row.createCell(1).setCellValue("User " + i);
+			row.createCell(2).setCellValue("user" + i + "@example.com");
+			row.createCell(3).setCellValue(i * 1.25);
+			Cell date = row.createCell(4);
+			date.setCellValue(calendar.getTime());
+			date.setCellStyle(dateStyle);
+			row.createCell(5).setCellValue(i % 2 == 0);
+			calendar.add(Calendar.HOUR_OF_DAY, 1);
+		}
+		return save(workbook, "benchmark");
+	}
+
+	private static File save(Workbook workbook, String name) throws IOException {
+		File file = File.createTempFile("excel-stream-" + name, ".xlsx");
+		try (OutputStream out = new FileOutputStream(file)) {
+			workbook.write(out);
+		}
+		if (workbook instanceof SXSSFWorkbook) {
+			((SXSSFWorkbook) workbook).dispose();
+		}
+		return file;
+	}
+
+	/*
+	 * Cell texts with XSSFWorkbook and XSSFCell.toString(), missing cells as ""
+	 */
+	private static List<List<String>> readWithWorkbook(File file, List<Integer> rowIndexes) throws IOException {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		try (InputStream in = new FileInputStream(file)) {
+			Sheet sheet = new XSSFWorkbook(in).getSheet(sheetName);
+			for (Row row : sheet) {
+				List<String> cells = new ArrayList<String>();
+				for (int i = 0; i < row.getLastCellNum(); i++) {
+					Cell cell = row.getCell(i);
+					cells.add((cell == null) ? "" : cell.toString());
+				}
+				rowIndexes.add(row.getRowNum());
+				rows.add(cells);
+			}
+		}
+		return rows;
+	}
+
+	private static List<List<String>> readWithStreamReader(File file, List<Integer> rowIndexes) throws Exception {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		try (ExcelStreamReader reader = new ExcelStreamReader(file.getPath(), sheetName)) {
+			List<String> row;
+			while ((row = reader.nextRow()) != null) {
+				rowIndexes.add(reader.getRowIndex());
+				rows.add(row);
+			}
+		}
+		return rows;
+	}
+}